@@ -0,0 +1,43 @@
+package com.bakuard.lo;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Paths;
+
+/*
+* Runs all benchmarks with the GC profiler, so both throughput and allocation rate are reported.
+* Accepts the usual JMH command line options, e.g. a benchmark name pattern or -rf json -rff result.json.
+* ConversionBenchmark is excluded when the LibreOffice home is not configured. Otherwise the LibreOffice program
+* directory is added to java.library.path of the forks, the pipe transport needs its native library jpipe.
+*/
+public class BenchmarksRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(commandLineOptions)
+				.addProfiler(GCProfiler.class);
+
+		String officeHome = ConversionBenchmark.officeHome();
+		if(officeHome == null) {
+			System.out.println("LibreOffice home is not configured, ConversionBenchmark is skipped. Set the system property " +
+					ConversionBenchmark.OfficeHomeProperty + " or the environment variable " +
+					ConversionBenchmark.OfficeHomeEnvironmentVariable + " to run it.");
+			options.exclude(ConversionBenchmark.class.getSimpleName());
+		} else {
+			options.jvmArgsAppend(
+					"-D" + ConversionBenchmark.OfficeHomeProperty + "=" + officeHome,
+					"-Djava.library.path=" + Paths.get(officeHome).resolve("program").toAbsolutePath()
+			);
+		}
+
+		new Runner(options.build()).run();
+	}
+}
@@ -0,0 +1,110 @@
+package com.bakuard.lo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+* End-to-end conversions with a running LibreOffice process. The LibreOffice home is taken from the system
+* property loConverter.officeHome or the environment variable LIBREOFFICE_HOME; BenchmarksRunner skips
+* this suite when neither is set.
+*
+* The transport parameter compares the UNO connection over a localhost TCP socket and over a named pipe.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ConversionBenchmark {
+
+	static final String OfficeHomeProperty = "loConverter.officeHome";
+	static final String OfficeHomeEnvironmentVariable = "LIBREOFFICE_HOME";
+
+	private static final int Port = 2082;
+
+	@Param({"socket", "pipe"})
+	public String transport;
+
+	@Param({"pdf", "odt"})
+	public String targetExtension;
+
+	private LOConverter converter;
+	private Path workDirectory;
+	private Path sourceFile;
+	private Path targetFile;
+	private byte[] sourceDocument;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		String officeHome = officeHome();
+		if(officeHome == null)
+			throw new IllegalStateException("LibreOffice home is not configured. Set the system property " +
+					OfficeHomeProperty + " or the environment variable " + OfficeHomeEnvironmentVariable);
+
+		LOAddress address = transport.equals("pipe") ?
+				LOAddress.pipe("loConverter-benchmark-" + ProcessHandle.current().pid()) :
+				LOAddress.socket(Port);
+
+		workDirectory = Files.createTempDirectory("loConverter-benchmark-");
+		sourceFile = workDirectory.resolve("source.html");
+		targetFile = workDirectory.resolve("target." + targetExtension);
+		sourceDocument = createSourceDocument();
+		Files.write(sourceFile, sourceDocument);
+
+		converter = new LOConverter(address, officeHome);
+		converter.convert(sourceFile.toString(), targetFile.toString());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if(converter != null)
+			converter.terminateOfficeProcess();
+
+		if(workDirectory != null) {
+			Files.deleteIfExists(sourceFile);
+			Files.deleteIfExists(targetFile);
+			Files.deleteIfExists(workDirectory);
+		}
+	}
+
+	@Benchmark
+	public long fileToFile() throws IOException {
+		converter.convert(sourceFile.toString(), targetFile.toString());
+		return Files.size(targetFile);
+	}
+
+	@Benchmark
+	public int streamToStream() {
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		converter.convert(new ByteArrayInputStream(sourceDocument), target, targetExtension);
+		return target.size();
+	}
+
+
+	static String officeHome() {
+		String officeHome = System.getProperty(OfficeHomeProperty);
+		if(officeHome == null || officeHome.isBlank())
+			officeHome = System.getenv(OfficeHomeEnvironmentVariable);
+		return officeHome == null || officeHome.isBlank() ? null : officeHome;
+	}
+
+	private static byte[] createSourceDocument() {
+		StringBuilder html = new StringBuilder("<html><head><meta charset=\"UTF-8\"><title>Benchmark</title></head><body>");
+		for(int i = 0; i < 50; i++) {
+			html.append("<h2>Section ").append(i).append("</h2>");
+			html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ")
+					.append("ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation.</p>");
+			html.append("<table border=\"1\"><tr><td>").append(i).append("</td><td>").append(i * i).append("</td></tr></table>");
+		}
+		html.append("</body></html>");
+		return html.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,58 @@
+package com.bakuard.lo;
+
+import com.sun.star.beans.PropertyValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Building of store properties from the optional parameters of a conversion.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropertiesBenchmark {
+
+	private Map<String, Object> nestedParameters;
+	private Map<String, String> pdfParameters;
+	private Map<String, String> pdfParametersWithPassword;
+
+	@Setup
+	public void setUp() {
+		Map<String, Object> filterData = new HashMap<>();
+		filterData.put("Quality", 90);
+		filterData.put("ReduceImageResolution", true);
+		filterData.put("MaxImageResolution", 300);
+
+		nestedParameters = new HashMap<>();
+		nestedParameters.put("FilterName", "writer_pdf_Export");
+		nestedParameters.put("Overwrite", true);
+		nestedParameters.put("FilterData", filterData);
+
+		pdfParameters = new HashMap<>();
+		pdfParameters.put("format", "PDF/A-1b");
+
+		pdfParametersWithPassword = new HashMap<>(pdfParameters);
+		pdfParametersWithPassword.put("PermissionPassword", "secret");
+	}
+
+	@Benchmark
+	public PropertyValue[] propertiesFromMap() {
+		return Properties.properties(nestedParameters);
+	}
+
+	@Benchmark
+	public PropertyValue[] pdfConversionProperties() {
+		return Properties.conversionProperties("pdf", pdfParameters);
+	}
+
+	@Benchmark
+	public PropertyValue[] pdfConversionPropertiesWithPassword() {
+		return Properties.conversionProperties("pdf", pdfParametersWithPassword);
+	}
+}
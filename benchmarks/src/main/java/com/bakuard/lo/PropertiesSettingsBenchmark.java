@@ -0,0 +1,43 @@
+package com.bakuard.lo;
+
+import com.sun.star.beans.PropertyValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+* Loading of documents-formats.json and lookup of store properties, which is done for each conversion.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropertiesSettingsBenchmark {
+
+	@Param({"doc:pdf", "xlsx:ods", "pptx:pdf", "html:odt"})
+	public String conversion;
+
+	private PropertiesSettings propertiesSettings;
+	private String sourceExtension;
+	private String targetExtension;
+
+	@Setup
+	public void setUp() {
+		propertiesSettings = new PropertiesSettings();
+		sourceExtension = conversion.substring(0, conversion.indexOf(':'));
+		targetExtension = conversion.substring(conversion.indexOf(':') + 1);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public PropertiesSettings construct() {
+		return new PropertiesSettings();
+	}
+
+	@Benchmark
+	public PropertyValue[] getStorePropertiesByExtensions() {
+		return propertiesSettings.getStorePropertiesByExtensions(sourceExtension, targetExtension);
+	}
+}
@@ -0,0 +1,64 @@
+package com.bakuard.lo;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Copying of a source document from the caller's InputStream into memory or into a spill file and, when
+* LibreOffice can't load the document from a stream, into a temporary file.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceSpoolingBenchmark {
+
+	@Param({"16384", "1048576", "16777216"})
+	public int documentSize;
+
+	/*
+	* For example, /dev/shm.
+	*/
+	@Param({"java.io.tmpdir"})
+	public String spillDirectory;
+
+	private byte[] document;
+	private SourceSpooler spooler;
+
+	@Setup
+	public void setUp() {
+		document = new byte[documentSize];
+		new Random(documentSize).nextBytes(document);
+
+		Path directory = spillDirectory.equals("java.io.tmpdir") ?
+				Paths.get(System.getProperty("java.io.tmpdir")) :
+				Paths.get(spillDirectory);
+		spooler = new SourceSpooler(directory, 4 * 1024 * 1024, 256L * 1024L * 1024L);
+	}
+
+	@Benchmark
+	public long spool() {
+		try(SpooledSource source = spooler.spool(new ByteArrayInputStream(document))) {
+			return source.getLength();
+		}
+	}
+
+	@Benchmark
+	public long toTempFile() throws IOException {
+		Path tempFile = spooler.toTempFile(document);
+		try {
+			return Files.size(tempFile);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package com.bakuard.lo;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+* Converts all files of a source directory tree into a target directory tree with the same structure,
+* using all workers of the pool. The result of each file is appended to the manifest (see BatchManifest).
+* A rerun with the same manifest skips files that were completed and, unless retryFailed is set,
+* files that failed or timed out.
+*
+* Can be run from the command line, see main(...).
+*/
+public class BatchConverter {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchConverter.class.getName());
+
+	private final LOConverterPool pool;
+	private final Map<String, String> targetExtensions = new ConcurrentHashMap<>();
+	private volatile Set<String> sourceExtensions;
+	private volatile boolean retryFailed;
+	private volatile int maxTasksInProgress;
+	private volatile ConversionOptions conversionOptions = ConversionOptions.defaults().withPriority(ConversionPriority.LOW);
+	private volatile Duration progressInterval = Duration.ofSeconds(10);
+	private volatile Consumer<BatchReport> progressListener = report -> logger.info("Batch conversion progress: {}", report);
+
+	public BatchConverter(LOConverterPool pool) {
+		this.pool = pool;
+	}
+
+	/*
+	* Converts files of the tree to targetExtension, except the files which source extension has its own target extension
+	* (see setTargetExtension(...)). Only files with supported extensions (or with sourceExtensions, if set) are converted.
+	*/
+	public BatchReport convertTree(Path sourceRoot, Path targetRoot, String targetExtension, Path manifestFile) {
+		Path sourceDirectory = sourceRoot.toAbsolutePath().normalize();
+		Path targetDirectory = targetRoot.toAbsolutePath().normalize();
+		Path manifest = manifestFile.toAbsolutePath().normalize();
+		if(!Files.isDirectory(sourceDirectory))
+			throw new IllegalArgumentException("Source directory doesn't exist: " + sourceDirectory);
+
+		Progress progress = new Progress();
+		int maxTasksInProgress = this.maxTasksInProgress > 0 ?
+				this.maxTasksInProgress :
+				pool.getPoolSize() * pool.getMaxConcurrentDocumentsPerProcess();
+		Semaphore tasksInProgress = new Semaphore(maxTasksInProgress);
+
+		logger.info("Batch conversion from {} to {} was started.", sourceDirectory, targetDirectory);
+		try(BatchManifest batchManifest = new BatchManifest(manifest);
+			Stream<Path> files = Files.walk(sourceDirectory)) {
+			Iterator<Path> iterator = files
+					.filter(file -> !file.startsWith(targetDirectory) || targetDirectory.equals(sourceDirectory))
+					.filter(file -> !file.equals(manifest))
+					.filter(Files::isRegularFile)
+					.filter(this::isSourceFile)
+					.iterator();
+
+			while(iterator.hasNext()) {
+				Path sourceFile = iterator.next();
+				Path relativePath = sourceDirectory.relativize(sourceFile);
+				String relativeName = FilenameUtils.separatorsToUnix(relativePath.toString());
+				Path targetFile = targetFile(targetDirectory, relativePath, targetExtension);
+
+				if(isProcessed(batchManifest.getStatus(relativeName), targetFile)) {
+					progress.skipped.incrementAndGet();
+					continue;
+				}
+
+				acquire(tasksInProgress, 1);
+				convertFile(sourceFile, targetFile, relativeName, batchManifest, progress)
+						.whenComplete((result, error) -> {
+							tasksInProgress.release();
+							reportProgressIfNeeded(progress);
+						});
+			}
+
+			acquire(tasksInProgress, maxTasksInProgress);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to walk source directory " + sourceDirectory, e);
+		}
+
+		BatchReport report = progress.report();
+		logger.info("Batch conversion from {} to {} was completed: {}", sourceDirectory, targetDirectory, report);
+		return report;
+	}
+
+	/*
+	* For example, setTargetExtension("xls", "xlsx") and setTargetExtension("doc", "docx") for migration of legacy files.
+	*/
+	public void setTargetExtension(String sourceExtension, String targetExtension) {
+		targetExtensions.put(sourceExtension.toLowerCase(Locale.ROOT), targetExtension);
+	}
+
+	/*
+	* Null (by default) means all extensions supported by PropertiesSettings.
+	*/
+	public void setSourceExtensions(Set<String> sourceExtensions) {
+		if(sourceExtensions == null) {
+			this.sourceExtensions = null;
+			return;
+		}
+
+		Set<String> result = new HashSet<>();
+		for(String extension : sourceExtensions)
+			result.add(extension.toLowerCase(Locale.ROOT));
+		this.sourceExtensions = Set.copyOf(result);
+	}
+
+	public void setRetryFailed(boolean retryFailed) {
+		this.retryFailed = retryFailed;
+	}
+
+	/*
+	* By default equals to the number of slots of the pool. Must not exceed the number of asynchronous tasks that the pool accepts.
+	*/
+	public void setMaxTasksInProgress(int maxTasksInProgress) {
+		if(maxTasksInProgress < 1)
+			throw new IllegalArgumentException("Max tasks in progress must be greater than 0, actual: " + maxTasksInProgress);
+		this.maxTasksInProgress = maxTasksInProgress;
+	}
+
+	/*
+	* By default the files are converted with LOW priority, so interactive calls to the same pool are served first.
+	*/
+	public void setConversionOptions(ConversionOptions conversionOptions) {
+		this.conversionOptions = Objects.requireNonNull(conversionOptions, "conversionOptions can't be null");
+	}
+
+	/*
+	* The listener is called from the pool threads not more often than once per progressInterval. By default, progress is logged.
+	*/
+	public void setProgressListener(Duration progressInterval, Consumer<BatchReport> progressListener) {
+		this.progressInterval = Objects.requireNonNull(progressInterval, "progressInterval can't be null");
+		this.progressListener = Objects.requireNonNull(progressListener, "progressListener can't be null");
+	}
+
+
+	/*
+	* Usage: BatchConverter <officeHome> <sourceDirectory> <targetDirectory> <targetExtension> [options]
+	*   --manifest <file>             manifest file, <targetDirectory>/.loConverter-manifest by default
+	*   --workers <number>            number of LibreOffice processes, number of processors by default
+	*   --first-port <port>           port of the first LibreOffice process, 2002 by default
+	*   --map <source>=<target>       target extension for files with the source extension, can be repeated
+	*   --extensions <ext1,ext2,...>  convert only files with these extensions
+	*   --timeout <seconds>           timeout of each conversion
+	*   --retry-failed                convert again files that failed or timed out in previous runs
+	*/
+	public static void main(String[] args) {
+		if(args.length < 4) {
+			System.err.println("Usage: BatchConverter <officeHome> <sourceDirectory> <targetDirectory> <targetExtension> " +
+					"[--manifest <file>] [--workers <number>] [--first-port <port>] [--map <source>=<target>] " +
+					"[--extensions <ext1,ext2,...>] [--timeout <seconds>] [--retry-failed]");
+			System.exit(2);
+		}
+
+		String officeHome = args[0];
+		Path sourceDirectory = Paths.get(args[1]);
+		Path targetDirectory = Paths.get(args[2]);
+		String targetExtension = args[3];
+		Path manifest = targetDirectory.resolve(".loConverter-manifest");
+		int workers = Runtime.getRuntime().availableProcessors();
+		int firstPort = 2002;
+		Map<String, String> targetExtensions = new HashMap<>();
+		Set<String> sourceExtensions = null;
+		Duration timeout = null;
+		boolean retryFailed = false;
+
+		for(int i = 4; i < args.length; i++) {
+			switch(args[i]) {
+				case "--manifest" -> manifest = Paths.get(args[++i]);
+				case "--workers" -> workers = Integer.parseInt(args[++i]);
+				case "--first-port" -> firstPort = Integer.parseInt(args[++i]);
+				case "--map" -> {
+					String[] mapping = args[++i].split("=", 2);
+					targetExtensions.put(mapping[0], mapping[1]);
+				}
+				case "--extensions" -> sourceExtensions = Arrays.stream(args[++i].split(","))
+						.map(String::trim)
+						.map(extension -> extension.toLowerCase(Locale.ROOT))
+						.filter(extension -> !extension.isEmpty())
+						.collect(Collectors.toSet());
+				case "--timeout" -> timeout = Duration.ofSeconds(Long.parseLong(args[++i]));
+				case "--retry-failed" -> retryFailed = true;
+				default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+
+		int exitCode;
+		LOConverterPool pool = new LOConverterPool(firstPort, workers, officeHome);
+		try {
+			BatchConverter batchConverter = new BatchConverter(pool);
+			targetExtensions.forEach(batchConverter::setTargetExtension);
+			batchConverter.setSourceExtensions(sourceExtensions);
+			batchConverter.setRetryFailed(retryFailed);
+			if(timeout != null)
+				batchConverter.setConversionOptions(ConversionOptions.defaults().withPriority(ConversionPriority.LOW).withTimeout(timeout));
+			batchConverter.setProgressListener(Duration.ofSeconds(10), report -> System.out.println("Progress: " + report));
+
+			BatchReport report = batchConverter.convertTree(sourceDirectory, targetDirectory, targetExtension, manifest);
+			System.out.println("Completed: " + report);
+			exitCode = report.getFailed() + report.getTimedOut() > 0 ? 1 : 0;
+		} finally {
+			pool.terminateOfficeProcesses();
+		}
+		System.exit(exitCode);
+	}
+
+
+	private CompletableFuture<Void> convertFile(Path sourceFile, Path targetFile, String relativeName, BatchManifest manifest, Progress progress) {
+		long start = System.nanoTime();
+		long sourceSize = fileSize(sourceFile);
+		try {
+			Files.createDirectories(targetFile.getParent());
+		} catch(IOException e) {
+			recordResult(relativeName, start, sourceSize, e, manifest, progress);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return pool.convertAsync(sourceFile.toString(), targetFile.toString(), null, conversionOptions)
+				.handle((result, error) -> {
+					recordResult(relativeName, start, sourceSize, error, manifest, progress);
+					return null;
+				});
+	}
+
+	private void recordResult(String relativeName, long start, long sourceSize, Throwable error, BatchManifest manifest, Progress progress) {
+		long durationMillis = (System.nanoTime() - start) / 1_000_000L;
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+		BatchStatus status = BatchStatus.COMPLETED;
+		if(cause instanceof ConversionTimeoutException)
+			status = BatchStatus.TIMED_OUT;
+		else if(cause != null)
+			status = BatchStatus.FAILED;
+
+		try {
+			manifest.append(status, relativeName, durationMillis, cause != null ? cause.getClass().getName() + ": " + cause.getMessage() : null);
+		} catch(RuntimeException e) {
+			logger.error("Fail to record result of {} to batch manifest.", relativeName, e);
+		}
+
+		progress.sourceBytes.addAndGet(Math.max(sourceSize, 0L));
+		switch(status) {
+			case COMPLETED -> progress.completed.incrementAndGet();
+			case FAILED -> progress.failed.incrementAndGet();
+			case TIMED_OUT -> progress.timedOut.incrementAndGet();
+		}
+		if(cause != null)
+			logger.warn("Fail to convert {}: {}", relativeName, cause.toString());
+	}
+
+	private void reportProgressIfNeeded(Progress progress) {
+		long now = System.nanoTime();
+		long lastReport = progress.lastReportNanos.get();
+		if(now - lastReport < progressInterval.toNanos() || !progress.lastReportNanos.compareAndSet(lastReport, now))
+			return;
+
+		try {
+			progressListener.accept(progress.report());
+		} catch(RuntimeException e) {
+			logger.warn("Batch progress listener has failed.", e);
+		}
+	}
+
+	private boolean isSourceFile(Path file) {
+		String extension = FilenameUtils.getExtension(file.getFileName().toString()).toLowerCase(Locale.ROOT);
+		Set<String> sourceExtensions = this.sourceExtensions;
+		if(sourceExtensions != null)
+			return sourceExtensions.contains(extension);
+		return PropertiesSettings.shared().getFormatByExtension(extension).isPresent();
+	}
+
+	private boolean isProcessed(BatchStatus status, Path targetFile) {
+		if(status == BatchStatus.COMPLETED)
+			return Files.exists(targetFile);
+		return status != null && !retryFailed;
+	}
+
+	private Path targetFile(Path targetDirectory, Path relativePath, String defaultTargetExtension) {
+		String fileName = relativePath.getFileName().toString();
+		String sourceExtension = FilenameUtils.getExtension(fileName).toLowerCase(Locale.ROOT);
+		String targetExtension = targetExtensions.getOrDefault(sourceExtension, defaultTargetExtension);
+		return targetDirectory.resolve(relativePath).resolveSibling(FilenameUtils.removeExtension(fileName) + "." + targetExtension);
+	}
+
+	private static long fileSize(Path file) {
+		try {
+			return Files.size(file);
+		} catch(IOException e) {
+			return -1L;
+		}
+	}
+
+	private static void acquire(Semaphore semaphore, int permits) {
+		try {
+			semaphore.acquire(permits);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Batch conversion was interrupted.", e);
+		}
+	}
+
+
+	private static class Progress {
+
+		private final long startNanos = System.nanoTime();
+		private final AtomicLong lastReportNanos = new AtomicLong(startNanos);
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong timedOut = new AtomicLong();
+		private final AtomicLong skipped = new AtomicLong();
+		private final AtomicLong sourceBytes = new AtomicLong();
+
+		public BatchReport report() {
+			return new BatchReport(completed.get(), failed.get(), timedOut.get(), skipped.get(), sourceBytes.get(),
+					Duration.ofNanos(System.nanoTime() - startNanos));
+		}
+	}
+}
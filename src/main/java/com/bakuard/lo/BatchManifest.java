@@ -0,0 +1,144 @@
+package com.bakuard.lo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+* Append-only log of processed files of a batch: one line 'STATUS<TAB>relative path<TAB>duration in ms<TAB>message'
+* per file. Each line is flushed immediately, so after a crash at most the line being written is lost;
+* such an incomplete line is ignored on loading and is terminated before new lines are appended.
+* The last line for a file wins.
+*/
+final class BatchManifest implements AutoCloseable {
+
+	private static final Logger logger = LoggerFactory.getLogger(BatchManifest.class.getName());
+
+	private final Path file;
+	private final Map<String, BatchStatus> statuses;
+	private final BufferedWriter writer;
+
+	BatchManifest(Path file) {
+		this.file = file;
+		try {
+			Path parent = file.toAbsolutePath().getParent();
+			if(parent != null)
+				Files.createDirectories(parent);
+
+			this.statuses = load(file);
+			this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+			if(endsWithIncompleteLine(file)) {
+				writer.newLine();
+				writer.flush();
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to open batch manifest " + file, e);
+		}
+	}
+
+	BatchStatus getStatus(String relativePath) {
+		return statuses.get(relativePath);
+	}
+
+	int getRecordsNumber() {
+		return statuses.size();
+	}
+
+	synchronized void append(BatchStatus status, String relativePath, long durationMillis, String message) {
+		try {
+			writer.write(status.name() + '\t' + escape(relativePath) + '\t' + durationMillis + '\t' + escape(message != null ? message : ""));
+			writer.newLine();
+			writer.flush();
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to write batch manifest " + file, e);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			writer.close();
+		} catch(IOException e) {
+			logger.warn("Fail to close batch manifest {}", file, e);
+		}
+	}
+
+
+	private static Map<String, BatchStatus> load(Path file) throws IOException {
+		Map<String, BatchStatus> statuses = new HashMap<>();
+		if(!Files.isRegularFile(file))
+			return statuses;
+
+		/*
+		* An incomplete line may end in the middle of a UTF-8 sequence, so malformed bytes are replaced
+		* instead of failing the whole manifest.
+		*/
+		String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		for(String line : content.lines().toList()) {
+			String[] columns = line.split("\t", -1);
+			if(columns.length != 4)
+				continue;
+			try {
+				statuses.put(unescape(columns[1]), BatchStatus.valueOf(columns[0]));
+			} catch(IllegalArgumentException e) {
+				logger.debug("Skip malformed line of batch manifest {}: {}", file, line);
+			}
+		}
+		return statuses;
+	}
+
+	private static boolean endsWithIncompleteLine(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if(channel.size() == 0)
+				return false;
+
+			ByteBuffer lastByte = ByteBuffer.allocate(1);
+			channel.read(lastByte, channel.size() - 1);
+			return lastByte.get(0) != '\n';
+		}
+	}
+
+	private static String escape(String value) {
+		StringBuilder result = new StringBuilder(value.length());
+		for(char c : value.toCharArray()) {
+			switch(c) {
+				case '\\' -> result.append("\\\\");
+				case '\t' -> result.append("\\t");
+				case '\n' -> result.append("\\n");
+				case '\r' -> result.append("\\r");
+				default -> result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	private static String unescape(String value) {
+		StringBuilder result = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '\\' && i + 1 < value.length()) {
+				char next = value.charAt(++i);
+				switch(next) {
+					case 't' -> result.append('\t');
+					case 'n' -> result.append('\n');
+					case 'r' -> result.append('\r');
+					default -> result.append(next);
+				}
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+}
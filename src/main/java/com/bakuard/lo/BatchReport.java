@@ -0,0 +1,73 @@
+package com.bakuard.lo;
+
+import java.time.Duration;
+
+/*
+* Progress of a batch conversion. Counts only files processed by the current run, except skipped files
+* that were processed by previous runs according to the manifest.
+*/
+public final class BatchReport {
+
+	private final long completed;
+	private final long failed;
+	private final long timedOut;
+	private final long skipped;
+	private final long sourceBytes;
+	private final Duration elapsed;
+
+	BatchReport(long completed, long failed, long timedOut, long skipped, long sourceBytes, Duration elapsed) {
+		this.completed = completed;
+		this.failed = failed;
+		this.timedOut = timedOut;
+		this.skipped = skipped;
+		this.sourceBytes = sourceBytes;
+		this.elapsed = elapsed;
+	}
+
+	public long getCompleted() {
+		return completed;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public long getTimedOut() {
+		return timedOut;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+
+	public long getProcessed() {
+		return completed + failed + timedOut;
+	}
+
+	/*
+	* Total size of the source files processed by the current run.
+	*/
+	public long getSourceBytes() {
+		return sourceBytes;
+	}
+
+	public Duration getElapsed() {
+		return elapsed;
+	}
+
+	public double getFilesPerSecond() {
+		double seconds = elapsed.toNanos() / 1_000_000_000.0;
+		return seconds > 0 ? getProcessed() / seconds : 0.0;
+	}
+
+	public double getMegabytesPerSecond() {
+		double seconds = elapsed.toNanos() / 1_000_000_000.0;
+		return seconds > 0 ? sourceBytes / (1024.0 * 1024.0) / seconds : 0.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("completed=%d, failed=%d, timedOut=%d, skipped=%d, elapsed=%ds, %.2f files/s, %.2f MB/s",
+				completed, failed, timedOut, skipped, elapsed.toSeconds(), getFilesPerSecond(), getMegabytesPerSecond());
+	}
+}
@@ -0,0 +1,7 @@
+package com.bakuard.lo;
+
+public enum BatchStatus {
+	COMPLETED,
+	FAILED,
+	TIMED_OUT
+}
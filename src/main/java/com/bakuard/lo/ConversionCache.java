@@ -0,0 +1,352 @@
+package com.bakuard.lo;
+
+import com.sun.star.beans.PropertyValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/*
+* Disk cache of conversion results. The key of a result is a SHA-256 hash of the source document content,
+* the target extension and the store properties. The results are evicted in LRU order when the total size
+* of the cache exceeds maxTotalBytes or the number of results exceeds maxEntries.
+*
+* The cache can be shared between several converters (for example, workers of LOConverterPool).
+* The last access time of each result is stored as its modification time, so the LRU order
+* survives restarts of the application.
+*/
+public class ConversionCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConversionCache.class.getName());
+
+	private static final String TempFilePrefix = "loConverter-cache-";
+	private static final String EntryFileSuffix = ".result";
+
+	private final Path directory;
+	private final long maxTotalBytes;
+	private final int maxEntries;
+
+	private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalBytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public ConversionCache(Path directory, long maxTotalBytes, int maxEntries) {
+		if(maxTotalBytes <= 0)
+			throw new IllegalArgumentException("Max total bytes must be greater than 0, actual: " + maxTotalBytes);
+		if(maxEntries <= 0)
+			throw new IllegalArgumentException("Max entries must be greater than 0, actual: " + maxEntries);
+
+		this.directory = directory.toAbsolutePath();
+		this.maxTotalBytes = maxTotalBytes;
+		this.maxEntries = maxEntries;
+
+		loadExistingEntries();
+	}
+
+	public String createKey(byte[] document, String targetExtension, PropertyValue[] properties) {
+		return key(document, targetExtension, properties, null);
+	}
+
+	public String createKey(Path sourceFile, String targetExtension, PropertyValue[] properties) {
+		return key(sourceFile, targetExtension, properties, null);
+	}
+
+	/*
+	* The same key identifies identical conversions in progress (see InFlightConversions), so it doesn't depend on the cache instance.
+	* The load profile is a part of the key if it is not null, since the same document can give a different result
+	* with another profile.
+	*/
+	static String key(byte[] document, String targetExtension, PropertyValue[] properties, LoadProfile loadProfile) {
+		MessageDigest digest = SourceDigest.newDigest();
+		digest.update(document);
+		return completeKey(digest, targetExtension, properties, loadProfile);
+	}
+
+	static String key(SpooledSource document, String targetExtension, PropertyValue[] properties, LoadProfile loadProfile) {
+		return document.isInMemory() ?
+				key(document.getBytes(), targetExtension, properties, loadProfile) :
+				key(document.getFile(), targetExtension, properties, loadProfile);
+	}
+
+	static String key(Path sourceFile, String targetExtension, PropertyValue[] properties, LoadProfile loadProfile) {
+		MessageDigest digest = SourceDigest.newDigest();
+		try {
+			SourceDigest.update(digest, sourceFile);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to read source document for calculating cache key: " + sourceFile, e);
+		}
+		return completeKey(digest, targetExtension, properties, loadProfile);
+	}
+
+	public boolean copyTo(String key, Path target) {
+		if(!isCached(key))
+			return false;
+
+		try {
+			Files.copy(entryFile(key), target, StandardCopyOption.REPLACE_EXISTING);
+			return hit(key);
+		} catch(NoSuchFileException e) {
+			return miss(key);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to copy cached conversion result to " + target, e);
+		}
+	}
+
+	public boolean copyTo(String key, OutputStream target) {
+		if(!isCached(key))
+			return false;
+
+		try(InputStream in = Files.newInputStream(entryFile(key))) {
+			in.transferTo(target);
+			target.flush();
+			return hit(key);
+		} catch(NoSuchFileException e) {
+			return miss(key);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to write cached conversion result to stream.", e);
+		}
+	}
+
+	public void put(String key, Path result) {
+		try {
+			Path tempFile = Files.createTempFile(directory, TempFilePrefix, null);
+			Files.copy(result, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			commit(key, tempFile);
+		} catch(IOException e) {
+			logger.warn("Fail to put conversion result {} to cache.", result, e);
+		}
+	}
+
+	/*
+	* Allows to write a conversion result to the cache while it is being written to the target stream.
+	* The result becomes visible in the cache only after commit().
+	*/
+	public EntryWriter openEntryWriter(String key) {
+		try {
+			return new EntryWriter(key, Files.createTempFile(directory, TempFilePrefix, null));
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to create cache entry for conversion result.", e);
+		}
+	}
+
+	public synchronized void clear() {
+		for(String key : new ArrayList<>(entrySizes.keySet()))
+			removeEntry(key);
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public synchronized int getEntriesNumber() {
+		return entrySizes.size();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+
+	private synchronized boolean isCached(String key) {
+		if(entrySizes.get(key) != null)
+			return true;
+
+		misses.incrementAndGet();
+		logger.debug("Conversion result with key {} was not found in cache.", key);
+		return false;
+	}
+
+	private boolean hit(String key) {
+		hits.incrementAndGet();
+		try {
+			Files.setLastModifiedTime(entryFile(key), FileTime.fromMillis(System.currentTimeMillis()));
+		} catch(IOException e) {
+			logger.debug("Fail to update last access time of cache entry {}", key, e);
+		}
+		logger.debug("Conversion result with key {} was taken from cache.", key);
+		return true;
+	}
+
+	private boolean miss(String key) {
+		synchronized(this) {
+			Long size = entrySizes.remove(key);
+			if(size != null) totalBytes -= size;
+		}
+		misses.incrementAndGet();
+		logger.debug("Conversion result with key {} was evicted from cache during reading.", key);
+		return false;
+	}
+
+	private void commit(String key, Path tempFile) throws IOException {
+		long size = Files.size(tempFile);
+		synchronized(this) {
+			Files.move(tempFile, entryFile(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Long previousSize = entrySizes.put(key, size);
+			totalBytes += size - (previousSize != null ? previousSize : 0L);
+			evict();
+		}
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = entrySizes.entrySet().iterator();
+		while((totalBytes > maxTotalBytes || entrySizes.size() > maxEntries) && iterator.hasNext()) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			iterator.remove();
+			totalBytes -= eldest.getValue();
+			deleteEntryFile(eldest.getKey());
+		}
+	}
+
+	private void removeEntry(String key) {
+		Long size = entrySizes.remove(key);
+		if(size != null) {
+			totalBytes -= size;
+			deleteEntryFile(key);
+		}
+	}
+
+	private void deleteEntryFile(String key) {
+		try {
+			Files.deleteIfExists(entryFile(key));
+			logger.debug("Conversion result with key {} was evicted from cache.", key);
+		} catch(IOException e) {
+			logger.warn("Fail to delete cache entry {}", key, e);
+		}
+	}
+
+	private Path entryFile(String key) {
+		return directory.resolve(key + EntryFileSuffix);
+	}
+
+	private synchronized void loadExistingEntries() {
+		try {
+			Files.createDirectories(directory);
+
+			List<Path> entries = new ArrayList<>();
+			try(Stream<Path> files = Files.list(directory)) {
+				files.filter(Files::isRegularFile).forEach(file -> {
+					String fileName = file.getFileName().toString();
+					if(fileName.startsWith(TempFilePrefix))
+						deleteQuietly(file);
+					else if(fileName.endsWith(EntryFileSuffix))
+						entries.add(file);
+				});
+			}
+
+			entries.sort(Comparator.comparing(this::lastModifiedTime));
+			for(Path entry : entries) {
+				String fileName = entry.getFileName().toString();
+				long size = Files.size(entry);
+				entrySizes.put(fileName.substring(0, fileName.length() - EntryFileSuffix.length()), size);
+				totalBytes += size;
+			}
+			evict();
+
+			logger.info("Conversion cache was loaded from {}: {} entries, {} bytes.", directory, entrySizes.size(), totalBytes);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to load conversion cache from " + directory, e);
+		}
+	}
+
+	private FileTime lastModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch(IOException e) {
+			return FileTime.fromMillis(0L);
+		}
+	}
+
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch(IOException e) {
+			logger.warn("Fail to delete file {}", file, e);
+		}
+	}
+
+	private static String completeKey(MessageDigest digest, String targetExtension, PropertyValue[] properties, LoadProfile loadProfile) {
+		digest.update((byte) 0);
+		digest.update(targetExtension.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		if(properties != null)
+			digest.update(propertiesToString(properties).getBytes(StandardCharsets.UTF_8));
+		if(loadProfile != null) {
+			digest.update((byte) 0);
+			digest.update(propertiesToString(Properties.properties(loadProfile.getProperties())).getBytes(StandardCharsets.UTF_8));
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static String propertiesToString(PropertyValue[] properties) {
+		StringJoiner joiner = new StringJoiner(",", "[", "]");
+		Arrays.stream(properties)
+				.sorted(Comparator.comparing(property -> property.Name))
+				.forEach(property -> {
+					Object value = property.Value instanceof PropertyValue[] ?
+							propertiesToString((PropertyValue[]) property.Value) :
+							String.valueOf(property.Value);
+					joiner.add(property.Name + "=" + value);
+				});
+		return joiner.toString();
+	}
+
+
+	public class EntryWriter implements AutoCloseable {
+
+		private final String key;
+		private final Path tempFile;
+		private final OutputStream outputStream;
+		private boolean committed;
+
+		private EntryWriter(String key, Path tempFile) throws IOException {
+			this.key = key;
+			this.tempFile = tempFile;
+			this.outputStream = Files.newOutputStream(tempFile);
+		}
+
+		public OutputStream getOutputStream() {
+			return outputStream;
+		}
+
+		public void commit() {
+			try {
+				outputStream.close();
+				ConversionCache.this.commit(key, tempFile);
+				committed = true;
+			} catch(IOException e) {
+				logger.warn("Fail to put conversion result with key {} to cache.", key, e);
+			}
+		}
+
+		@Override
+		public void close() {
+			if(!committed) {
+				try {
+					outputStream.close();
+				} catch(IOException e) {
+					logger.debug("Fail to close cache entry {}", key, e);
+				}
+				deleteQuietly(tempFile);
+			}
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.bakuard.lo;
+
+public class ConversionCancelledException extends RuntimeException {
+
+	public ConversionCancelledException(String message) {
+		super(message);
+	}
+
+	public ConversionCancelledException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
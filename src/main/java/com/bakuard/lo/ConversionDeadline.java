@@ -0,0 +1,68 @@
+package com.bakuard.lo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Deadlines of all conversions in the JVM are served by one daemon scheduler thread, so starting
+* and canceling a deadline doesn't create any threads. Canceled deadlines are removed from the
+* scheduler queue immediately.
+*/
+final class ConversionDeadline {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConversionDeadline.class.getName());
+
+	private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+
+	static ConversionDeadline start(Duration timeout, Runnable onExpired) {
+		ConversionDeadline deadline = new ConversionDeadline(timeout);
+		deadline.expiration = scheduler.schedule(() -> deadline.expire(onExpired), timeout.toNanos(), TimeUnit.NANOSECONDS);
+		return deadline;
+	}
+
+	private static ScheduledThreadPoolExecutor createScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+			Thread thread = new Thread(task, "loConverter-deadlines");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+
+	private final Duration timeout;
+	private volatile ScheduledFuture<?> expiration;
+	private volatile boolean expired;
+
+	private ConversionDeadline(Duration timeout) {
+		this.timeout = timeout;
+	}
+
+	boolean isExpired() {
+		return expired;
+	}
+
+	Duration getTimeout() {
+		return timeout;
+	}
+
+	void cancel() {
+		expiration.cancel(false);
+	}
+
+	private void expire(Runnable onExpired) {
+		expired = true;
+		logger.debug("LibreOffice task deadline {} has expired.", timeout);
+		try {
+			onExpired.run();
+		} catch(RuntimeException e) {
+			logger.error("Fail to handle expired deadline of LibreOffice task.", e);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.bakuard.lo;
+
+import java.util.function.Consumer;
+
+/*
+* Runs the part of a conversion that needs LibreOffice on a converter. A single LOConverter runs it itself,
+* LOConverterPool runs it on a free worker. The steps before it (cache lookup, waiting for an identical conversion
+* in progress) don't need LibreOffice, so a call that is served by them doesn't take a slot of the pool.
+*/
+interface ConversionDispatcher {
+
+	void dispatch(ConversionOptions options, Consumer<LOConverter> conversion);
+
+}
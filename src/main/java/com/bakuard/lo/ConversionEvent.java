@@ -0,0 +1,108 @@
+package com.bakuard.lo;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/*
+* Result of one conversion. Input and output sizes are -1 if unknown. Formats are lower case extensions:
+* the source format is the extension of the source file or, for documents from InputStream, the main extension
+* of the format recognized by the content ('unknown' if the content was not recognized).
+*/
+public class ConversionEvent {
+
+	private final String sourceFormat;
+	private final String targetFormat;
+	private final Duration duration;
+	private final Map<ConversionPhase, Duration> phaseDurations;
+	private final long inputBytes;
+	private final long outputBytes;
+	private final boolean fromCache;
+	private final boolean shared;
+	private final Throwable failure;
+
+	public ConversionEvent(String sourceFormat,
+						   String targetFormat,
+						   Duration duration,
+						   Map<ConversionPhase, Duration> phaseDurations,
+						   long inputBytes,
+						   long outputBytes,
+						   boolean fromCache,
+						   boolean shared,
+						   Throwable failure) {
+		this.sourceFormat = sourceFormat;
+		this.targetFormat = targetFormat;
+		this.duration = duration;
+		this.phaseDurations = phaseDurations.isEmpty() ?
+				Collections.emptyMap() :
+				Collections.unmodifiableMap(new EnumMap<>(phaseDurations));
+		this.inputBytes = inputBytes;
+		this.outputBytes = outputBytes;
+		this.fromCache = fromCache;
+		this.shared = shared;
+		this.failure = failure;
+	}
+
+	public String getSourceFormat() {
+		return sourceFormat;
+	}
+
+	public String getTargetFormat() {
+		return targetFormat;
+	}
+
+	public Duration getDuration() {
+		return duration;
+	}
+
+	public Map<ConversionPhase, Duration> getPhaseDurations() {
+		return phaseDurations;
+	}
+
+	public Duration getPhaseDuration(ConversionPhase phase) {
+		return phaseDurations.getOrDefault(phase, Duration.ZERO);
+	}
+
+	public long getInputBytes() {
+		return inputBytes;
+	}
+
+	public long getOutputBytes() {
+		return outputBytes;
+	}
+
+	public boolean isFromCache() {
+		return fromCache;
+	}
+
+	/*
+	* The result was copied from an identical conversion in progress (see LOConverter.setSingleFlightEnabled()).
+	*/
+	public boolean isShared() {
+		return shared;
+	}
+
+	public boolean isFailed() {
+		return failure != null;
+	}
+
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	@Override
+	public String toString() {
+		return "ConversionEvent{" +
+				"sourceFormat='" + sourceFormat + '\'' +
+				", targetFormat='" + targetFormat + '\'' +
+				", duration=" + duration +
+				", phaseDurations=" + phaseDurations +
+				", inputBytes=" + inputBytes +
+				", outputBytes=" + outputBytes +
+				", fromCache=" + fromCache +
+				", shared=" + shared +
+				", failure=" + failure +
+				'}';
+	}
+}
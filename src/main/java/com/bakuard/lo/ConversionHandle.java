@@ -0,0 +1,55 @@
+package com.bakuard.lo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+* Allows to cancel calls that were started with this handle (see ConversionOptions.withHandle()).
+* A call that waits for a free slot leaves the queue at once. A running call closes its own
+* document, so other documents of the same LibreOffice process are not affected; the process is terminated only
+* if the call doesn't stop within the grace period (see LOConverter.setCancellationGracePeriod()).
+* Cancelled calls fail with ConversionCancelledException. A handle can't be reset after cancel().
+*/
+public class ConversionHandle {
+
+	private final List<Runnable> runningCalls = new ArrayList<>();
+	private boolean cancelled;
+
+	/*
+	* Returns false if the handle was already cancelled.
+	*/
+	public boolean cancel() {
+		List<Runnable> calls;
+		synchronized(this) {
+			if(cancelled)
+				return false;
+			cancelled = true;
+			calls = new ArrayList<>(runningCalls);
+		}
+
+		for(Runnable call : calls)
+			call.run();
+		return true;
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/*
+	* canceller is called once when the handle is cancelled, or immediately if it's already cancelled.
+	*/
+	void attach(Runnable canceller) {
+		synchronized(this) {
+			if(!cancelled) {
+				runningCalls.add(canceller);
+				return;
+			}
+		}
+		canceller.run();
+	}
+
+	synchronized void detach(Runnable canceller) {
+		runningCalls.remove(canceller);
+	}
+}
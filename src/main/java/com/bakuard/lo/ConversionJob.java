@@ -0,0 +1,262 @@
+package com.bakuard.lo;
+
+import com.sun.star.lang.XComponent;
+import org.apache.commons.io.output.ProxyOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/*
+* State of one call of LOConverter: the document opened by this call, timings of the conversion phases
+* and sizes of the input and output. Several calls can use the same LibreOffice process at the same time,
+* so the document handle belongs to the call and not to LOContext.
+*/
+final class ConversionJob {
+
+	private String sourceFormat;
+	private DocumentFormat sniffedFormat;
+	private final String targetFormat;
+	private final long startNanos = System.nanoTime();
+	private final EnumMap<ConversionPhase, Long> phaseNanos = new EnumMap<>(ConversionPhase.class);
+	private long inputBytes = -1L;
+	private long outputBytes = -1L;
+	private boolean fromCache;
+	private boolean shared;
+	private volatile XComponent document;
+	private byte[] sourceBytes;
+	private Path sourceFile;
+	private String sourceKey;
+	private volatile boolean outputStarted;
+	private volatile boolean cancelled;
+	private ConversionDeadline gracePeriod;
+	private volatile boolean inOffice;
+	private long connectionGeneration = -1L;
+
+	ConversionJob(String sourceFormat, String targetFormat) {
+		this.sourceFormat = normalizeFormat(sourceFormat);
+		this.targetFormat = normalizeFormat(targetFormat);
+	}
+
+	void measure(ConversionPhase phase, Runnable action) {
+		long start = System.nanoTime();
+		try {
+			action.run();
+		} finally {
+			recordPhase(phase, System.nanoTime() - start);
+		}
+	}
+
+	<T> T measure(ConversionPhase phase, Supplier<T> action) {
+		long start = System.nanoTime();
+		try {
+			return action.get();
+		} finally {
+			recordPhase(phase, System.nanoTime() - start);
+		}
+	}
+
+	/*
+	* For phases whose actions throw checked UNO exceptions: the caller measures the time itself.
+	*/
+	void recordPhase(ConversionPhase phase, long nanos) {
+		phaseNanos.merge(phase, nanos, Long::sum);
+	}
+
+	XComponent getDocument() {
+		return document;
+	}
+
+	void setDocument(XComponent document) {
+		this.document = document;
+	}
+
+	String getSourceFormat() {
+		return sourceFormat;
+	}
+
+	/*
+	* Format of the source recognized by its content. Null if the content was not recognized or sniffing is disabled.
+	*/
+	DocumentFormat getSniffedFormat() {
+		return sniffedFormat;
+	}
+
+	void setSniffedFormat(DocumentFormat sniffedFormat) {
+		this.sniffedFormat = sniffedFormat;
+	}
+
+	void setSource(byte[] sourceBytes) {
+		this.sourceBytes = sourceBytes;
+	}
+
+	void setSource(Path sourceFile) {
+		this.sourceFile = sourceFile;
+	}
+
+	/*
+	* Length of the source for PoisonRegistry, -1 if the source or its length is unknown.
+	*/
+	long getSourceLength() {
+		if(sourceBytes != null)
+			return sourceBytes.length;
+		try {
+			return sourceFile != null ? Files.size(sourceFile) : -1L;
+		} catch(IOException e) {
+			return -1L;
+		}
+	}
+
+	/*
+	* Content hash of the source for PoisonRegistry. Null if the source is unknown.
+	* The hash is calculated on demand: only when the source has crashed LibreOffice or when a document
+	* of the same length has crashed it before.
+	*/
+	String getSourceKey() {
+		if(sourceKey == null) {
+			if(sourceBytes != null)
+				sourceKey = PoisonRegistry.key(sourceBytes);
+			else if(sourceFile != null)
+				sourceKey = PoisonRegistry.key(sourceFile);
+		}
+		return sourceKey;
+	}
+
+	/*
+	* Generation of the connection with LibreOffice process used by the last attempt of the call (see LOContext).
+	*/
+	long getConnectionGeneration() {
+		return connectionGeneration;
+	}
+
+	void setConnectionGeneration(long connectionGeneration) {
+		this.connectionGeneration = connectionGeneration;
+	}
+
+	/*
+	* The conversion can be replayed only while nothing has been written to the caller's streams.
+	* Writing to the stream of a cancelled call fails, so LibreOffice aborts storing the document.
+	*/
+	OutputStream watchOutput(OutputStream target) {
+		return new ProxyOutputStream(target) {
+			@Override
+			protected void beforeWrite(int length) throws IOException {
+				if(cancelled)
+					throw new IOException("Conversion was cancelled.");
+				if(length > 0)
+					outputStarted = true;
+			}
+		};
+	}
+
+	boolean isOutputStarted() {
+		return outputStarted;
+	}
+
+	/*
+	* Returns false if the job was already cancelled.
+	*/
+	synchronized boolean cancel() {
+		if(cancelled)
+			return false;
+		cancelled = true;
+		return true;
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/*
+	* Grace period of an aborted job, after which the LibreOffice process is terminated. It's cancelled when the job
+	* leaves the process.
+	*/
+	void startGracePeriod(ConversionDeadline gracePeriod) {
+		boolean left;
+		synchronized(this) {
+			left = !inOffice;
+			if(!left)
+				this.gracePeriod = gracePeriod;
+		}
+		if(left)
+			gracePeriod.cancel();
+	}
+
+	void cancelGracePeriod() {
+		ConversionDeadline gracePeriod;
+		synchronized(this) {
+			gracePeriod = this.gracePeriod;
+			this.gracePeriod = null;
+		}
+		if(gracePeriod != null)
+			gracePeriod.cancel();
+	}
+
+	/*
+	* True while the job uses the LibreOffice process.
+	*/
+	boolean isInOffice() {
+		return inOffice;
+	}
+
+	void setInOffice(boolean inOffice) {
+		this.inOffice = inOffice;
+	}
+
+	void setSourceFormatIfUnknown(String sourceFormat) {
+		if(this.sourceFormat == null)
+			this.sourceFormat = normalizeFormat(sourceFormat);
+	}
+
+	void setInputBytesIfUnknown(long inputBytes) {
+		if(this.inputBytes < 0)
+			this.inputBytes = inputBytes;
+	}
+
+	void addOutputBytes(long outputBytes) {
+		this.outputBytes = Math.max(this.outputBytes, 0L) + outputBytes;
+	}
+
+	void markFromCache() {
+		this.fromCache = true;
+	}
+
+	void markShared() {
+		this.shared = true;
+	}
+
+	String getTargetFormat() {
+		return targetFormat;
+	}
+
+	ConversionEvent toEvent(Throwable failure) {
+		Map<ConversionPhase, Duration> phaseDurations = new EnumMap<>(ConversionPhase.class);
+		phaseNanos.forEach((phase, nanos) -> phaseDurations.put(phase, Duration.ofNanos(nanos)));
+
+		return new ConversionEvent(
+				sourceFormat != null ? sourceFormat : "unknown",
+				targetFormat,
+				Duration.ofNanos(System.nanoTime() - startNanos),
+				phaseDurations,
+				inputBytes,
+				outputBytes,
+				fromCache,
+				shared,
+				failure
+		);
+	}
+
+
+	/*
+	* Formats are reported as lower case extensions, so files 'a.DOCX' and 'b.docx' belong to one pair.
+	*/
+	private static String normalizeFormat(String format) {
+		return format == null || format.isEmpty() ? null : format.toLowerCase(Locale.ROOT);
+	}
+}
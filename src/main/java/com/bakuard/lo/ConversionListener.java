@@ -0,0 +1,18 @@
+package com.bakuard.lo;
+
+/*
+* Receives information about each conversion performed by LOConverter, including conversions
+* served from the cache. Methods are called in the thread of the conversion, so they must be fast
+* and must not throw exceptions (exceptions are logged and ignored).
+*/
+public interface ConversionListener {
+
+	default void onConversionCompleted(ConversionEvent event) {
+
+	}
+
+	default void onConversionFailed(ConversionEvent event) {
+
+	}
+
+}
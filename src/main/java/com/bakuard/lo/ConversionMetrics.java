@@ -0,0 +1,212 @@
+package com.bakuard.lo;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+* In-memory statistics of conversions for each 'source -> target' pair. Percentiles are calculated over
+* the last reservoirSize successful conversions of the pair, so the memory used by one pair is bounded.
+* Results taken from the cache or from an identical conversion in progress are only counted: they don't
+* describe the latency of LibreOffice.
+*/
+public class ConversionMetrics implements ConversionListener {
+
+	private static final int DefaultReservoirSize = 1024;
+
+	private final int reservoirSize;
+	private final Map<String, PairStatistics> statistics = new ConcurrentHashMap<>();
+
+	public ConversionMetrics() {
+		this(DefaultReservoirSize);
+	}
+
+	public ConversionMetrics(int reservoirSize) {
+		if(reservoirSize < 1)
+			throw new IllegalArgumentException("Reservoir size must be greater than 0, actual: " + reservoirSize);
+		this.reservoirSize = reservoirSize;
+	}
+
+	@Override
+	public void onConversionCompleted(ConversionEvent event) {
+		statisticsOf(event).record(event);
+	}
+
+	@Override
+	public void onConversionFailed(ConversionEvent event) {
+		statisticsOf(event).record(event);
+	}
+
+	/*
+	* Returns statistics for each 'source -> target' pair sorted by the pair name.
+	*/
+	public Map<String, Snapshot> snapshot() {
+		Map<String, Snapshot> result = new TreeMap<>();
+		statistics.forEach((pair, pairStatistics) -> result.put(pair, pairStatistics.snapshot(pair)));
+		return Collections.unmodifiableMap(result);
+	}
+
+	public void reset() {
+		statistics.clear();
+	}
+
+
+	private PairStatistics statisticsOf(ConversionEvent event) {
+		String pair = event.getSourceFormat() + " -> " + event.getTargetFormat();
+		return statistics.computeIfAbsent(pair, key -> new PairStatistics(reservoirSize));
+	}
+
+
+	public static class Snapshot {
+
+		private final String pair;
+		private final long conversions;
+		private final long failures;
+		private final long cacheHits;
+		private final long sharedResults;
+		private final Duration p50;
+		private final Duration p95;
+		private final Duration p99;
+		private final Duration max;
+		private final Map<String, Long> failureCauses;
+
+		private Snapshot(String pair,
+						 long conversions,
+						 long failures,
+						 long cacheHits,
+						 long sharedResults,
+						 Duration p50,
+						 Duration p95,
+						 Duration p99,
+						 Duration max,
+						 Map<String, Long> failureCauses) {
+			this.pair = pair;
+			this.conversions = conversions;
+			this.failures = failures;
+			this.cacheHits = cacheHits;
+			this.sharedResults = sharedResults;
+			this.p50 = p50;
+			this.p95 = p95;
+			this.p99 = p99;
+			this.max = max;
+			this.failureCauses = failureCauses;
+		}
+
+		public String getPair() {
+			return pair;
+		}
+
+		public long getConversions() {
+			return conversions;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public long getCacheHits() {
+			return cacheHits;
+		}
+
+		public long getSharedResults() {
+			return sharedResults;
+		}
+
+		public Duration getP50() {
+			return p50;
+		}
+
+		public Duration getP95() {
+			return p95;
+		}
+
+		public Duration getP99() {
+			return p99;
+		}
+
+		public Duration getMax() {
+			return max;
+		}
+
+		/*
+		* Number of failures for each exception class.
+		*/
+		public Map<String, Long> getFailureCauses() {
+			return failureCauses;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot{" +
+					"pair='" + pair + '\'' +
+					", conversions=" + conversions +
+					", failures=" + failures +
+					", cacheHits=" + cacheHits +
+					", sharedResults=" + sharedResults +
+					", p50=" + p50 +
+					", p95=" + p95 +
+					", p99=" + p99 +
+					", max=" + max +
+					", failureCauses=" + failureCauses +
+					'}';
+		}
+	}
+
+	private static class PairStatistics {
+
+		private final long[] durations;
+		private int nextIndex;
+		private int size;
+		private long conversions;
+		private long failures;
+		private long cacheHits;
+		private long sharedResults;
+		private final Map<String, Long> failureCauses = new HashMap<>();
+
+		public PairStatistics(int reservoirSize) {
+			this.durations = new long[reservoirSize];
+		}
+
+		public synchronized void record(ConversionEvent event) {
+			++conversions;
+			if(event.isFromCache())
+				++cacheHits;
+			if(event.isShared())
+				++sharedResults;
+
+			if(event.isFailed()) {
+				++failures;
+				failureCauses.merge(event.getFailure().getClass().getName(), 1L, Long::sum);
+			} else if(!event.isFromCache() && !event.isShared()) {
+				durations[nextIndex] = event.getDuration().toNanos();
+				nextIndex = (nextIndex + 1) % durations.length;
+				size = Math.min(size + 1, durations.length);
+			}
+		}
+
+		public synchronized Snapshot snapshot(String pair) {
+			long[] sorted = Arrays.copyOf(durations, size);
+			Arrays.sort(sorted);
+
+			return new Snapshot(
+					pair,
+					conversions,
+					failures,
+					cacheHits,
+					sharedResults,
+					percentile(sorted, 0.50),
+					percentile(sorted, 0.95),
+					percentile(sorted, 0.99),
+					sorted.length > 0 ? Duration.ofNanos(sorted[sorted.length - 1]) : Duration.ZERO,
+					Collections.unmodifiableMap(new TreeMap<>(failureCauses))
+			);
+		}
+
+		private static Duration percentile(long[] sorted, double percentile) {
+			if(sorted.length == 0)
+				return Duration.ZERO;
+			int index = (int) Math.ceil(percentile * sorted.length) - 1;
+			return Duration.ofNanos(sorted[Math.max(index, 0)]);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.bakuard.lo;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/*
+* Per-call settings of a conversion. Instances are immutable, every with...() method returns a new instance.
+*/
+public class ConversionOptions {
+
+	public static final String DefaultTenant = "";
+
+	private static final ConversionOptions Defaults = new ConversionOptions(null, null, ConversionPriority.NORMAL, DefaultTenant, null);
+
+	public static ConversionOptions defaults() {
+		return Defaults;
+	}
+
+
+	private final Duration timeout;
+	private final LoadProfile loadProfile;
+	private final ConversionPriority priority;
+	private final String tenant;
+	private final ConversionHandle handle;
+
+	private ConversionOptions(Duration timeout, LoadProfile loadProfile, ConversionPriority priority, String tenant, ConversionHandle handle) {
+		this.timeout = timeout;
+		this.loadProfile = loadProfile;
+		this.priority = priority;
+		this.tenant = tenant;
+		this.handle = handle;
+	}
+
+	/*
+	* Maximum duration of the conversion after LibreOffice has been started and connected.
+	* If it isn't set, the converter's default timeout for the target format is used.
+	*/
+	public ConversionOptions withTimeout(Duration timeout) {
+		if(timeout != null && (timeout.isZero() || timeout.isNegative()))
+			throw new IllegalArgumentException("Timeout must be positive, actual: " + timeout);
+		return new ConversionOptions(timeout, loadProfile, priority, tenant, handle);
+	}
+
+	/*
+	* Replaces the load profile of the source format. If it isn't set, the profile from the format registry is used.
+	*/
+	public ConversionOptions withLoadProfile(LoadProfile loadProfile) {
+		return new ConversionOptions(timeout, loadProfile, priority, tenant, handle);
+	}
+
+	/*
+	* Priority class of the call when it waits for a free slot. NORMAL by default.
+	*/
+	public ConversionOptions withPriority(ConversionPriority priority) {
+		Objects.requireNonNull(priority, "priority can't be null");
+		return new ConversionOptions(timeout, loadProfile, priority, tenant, handle);
+	}
+
+	/*
+	* Key of the tenant that the slots are shared fairly between (see setTenantWeight() of LOConverter and LOConverterPool).
+	* All calls without a tenant belong to one default tenant.
+	*/
+	public ConversionOptions withTenant(String tenant) {
+		return new ConversionOptions(timeout, loadProfile, priority, tenant != null ? tenant : DefaultTenant, handle);
+	}
+
+	/*
+	* Handle that the call can be cancelled with. Null means the call can be stopped only by its timeout.
+	*/
+	public ConversionOptions withHandle(ConversionHandle handle) {
+		return new ConversionOptions(timeout, loadProfile, priority, tenant, handle);
+	}
+
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	public LoadProfile getLoadProfile() {
+		return loadProfile;
+	}
+
+	public ConversionPriority getPriority() {
+		return priority;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public ConversionHandle getHandle() {
+		return handle;
+	}
+
+	@Override
+	public String toString() {
+		return "ConversionOptions{" +
+				"timeout=" + timeout +
+				", loadProfile=" + loadProfile +
+				", priority=" + priority +
+				", tenant='" + tenant + '\'' +
+				", cancellable=" + (handle != null) +
+				'}';
+	}
+}
@@ -0,0 +1,12 @@
+package com.bakuard.lo;
+
+public enum ConversionPhase {
+	SPOOL_SOURCE,
+	PROCESS_START,
+	CONNECT,
+	OPEN_DOCUMENT,
+	DETECT_FAMILY,
+	COMPARE_DOCUMENT,
+	SAVE_DOCUMENT,
+	CLOSE_DOCUMENT
+}
@@ -0,0 +1,13 @@
+package com.bakuard.lo;
+
+/*
+* Priority class of a call. A waiting call of a higher class always gets a free slot before calls of lower classes.
+* HIGH is intended for interactive requests, LOW for bulk jobs.
+*/
+public enum ConversionPriority {
+
+	HIGH,
+	NORMAL,
+	LOW
+
+}
@@ -0,0 +1,81 @@
+package com.bakuard.lo;
+
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Objects;
+
+/*
+* One of the results of a multi-target conversion: a file or an OutputStream with the extension of
+* the target format and optional store parameters for this format.
+*/
+public class ConversionTarget {
+
+	public static ConversionTarget toFile(String targetFileAbsolutPath) {
+		return toFile(targetFileAbsolutPath, null);
+	}
+
+	public static ConversionTarget toFile(String targetFileAbsolutPath, Map<String, String> optionalParameters) {
+		Objects.requireNonNull(targetFileAbsolutPath, "targetFileAbsolutPath can't be null");
+		return new ConversionTarget(targetFileAbsolutPath, null, FilenameUtils.getExtension(targetFileAbsolutPath), optionalParameters);
+	}
+
+	public static ConversionTarget toStream(OutputStream target, String targetExtension) {
+		return toStream(target, targetExtension, null);
+	}
+
+	public static ConversionTarget toStream(OutputStream target, String targetExtension, Map<String, String> optionalParameters) {
+		Objects.requireNonNull(target, "target can't be null");
+		Objects.requireNonNull(targetExtension, "targetExtension can't be null");
+		return new ConversionTarget(null, target, targetExtension, optionalParameters);
+	}
+
+
+	private final String targetFileAbsolutPath;
+	private final OutputStream outputStream;
+	private final String targetExtension;
+	private final Map<String, String> optionalParameters;
+
+	private ConversionTarget(String targetFileAbsolutPath,
+							 OutputStream outputStream,
+							 String targetExtension,
+							 Map<String, String> optionalParameters) {
+		this.targetFileAbsolutPath = targetFileAbsolutPath;
+		this.outputStream = outputStream;
+		this.targetExtension = targetExtension;
+		this.optionalParameters = optionalParameters;
+	}
+
+	public boolean isFile() {
+		return targetFileAbsolutPath != null;
+	}
+
+	public String getTargetFileAbsolutPath() {
+		return targetFileAbsolutPath;
+	}
+
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	public String getTargetExtension() {
+		return targetExtension;
+	}
+
+	public Map<String, String> getOptionalParameters() {
+		return optionalParameters;
+	}
+
+	public boolean hasOptionalParameters() {
+		return optionalParameters != null && !optionalParameters.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "ConversionTarget{" +
+				(isFile() ? "targetFileAbsolutPath='" + targetFileAbsolutPath + '\'' : "outputStream") +
+				", targetExtension='" + targetExtension + '\'' +
+				'}';
+	}
+}
@@ -0,0 +1,13 @@
+package com.bakuard.lo;
+
+public class ConversionTimeoutException extends RuntimeException {
+
+	public ConversionTimeoutException(String message) {
+		super(message);
+	}
+
+	public ConversionTimeoutException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
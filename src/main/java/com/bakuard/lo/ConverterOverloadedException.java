@@ -0,0 +1,13 @@
+package com.bakuard.lo;
+
+public class ConverterOverloadedException extends RuntimeException {
+
+	public ConverterOverloadedException(String message) {
+		super(message);
+	}
+
+	public ConverterOverloadedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
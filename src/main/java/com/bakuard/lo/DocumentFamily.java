@@ -0,0 +1,19 @@
+package com.bakuard.lo;
+
+public enum DocumentFamily {
+	TEXT,
+	WEB,
+	SPREADSHEET,
+	PRESENTATION,
+	DRAWING;
+
+	/*
+	* Returns null for null or unknown name.
+	*/
+	public static DocumentFamily findByName(String name) {
+		for(DocumentFamily family : values())
+			if(family.name().equalsIgnoreCase(name))
+				return family;
+		return null;
+	}
+}
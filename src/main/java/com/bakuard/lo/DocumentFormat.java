@@ -0,0 +1,54 @@
+package com.bakuard.lo;
+
+import java.util.List;
+
+/*
+* One entry of documents-formats.json.
+*/
+public final class DocumentFormat {
+
+	private final String name;
+	private final List<String> extensions;
+	private final String mediaType;
+	private final DocumentFamily inputFamily;
+	private final LoadProfile loadProfile;
+
+	DocumentFormat(String name, List<String> extensions, String mediaType, DocumentFamily inputFamily, LoadProfile loadProfile) {
+		this.name = name;
+		this.extensions = List.copyOf(extensions);
+		this.mediaType = mediaType;
+		this.inputFamily = inputFamily;
+		this.loadProfile = loadProfile;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getExtensions() {
+		return extensions;
+	}
+
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	public DocumentFamily getInputFamily() {
+		return inputFamily;
+	}
+
+	public LoadProfile getLoadProfile() {
+		return loadProfile;
+	}
+
+	@Override
+	public String toString() {
+		return "DocumentFormat{" +
+				"name='" + name + '\'' +
+				", extensions=" + extensions +
+				", mediaType='" + mediaType + '\'' +
+				", inputFamily=" + inputFamily +
+				", loadProfile=" + loadProfile +
+				'}';
+	}
+}
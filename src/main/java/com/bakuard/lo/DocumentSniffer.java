@@ -0,0 +1,287 @@
+package com.bakuard.lo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+* Determines the media type of a document by the first HeaderLength bytes of its content. The result matches
+* the mediaType values of documents-formats.json. Only formats with reliable signatures are recognized:
+* OLE2 (Word, Excel, PowerPoint, Visio 97-2003), ZIP containers (OpenDocument by the mimetype entry,
+* Office Open XML by [Content_Types].xml), PDF, RTF and common image formats. Text formats (plain text, CSV, HTML)
+* have no signature. For them and for other content the result is empty and the format is left to LibreOffice.
+*/
+public final class DocumentSniffer {
+
+	public static final int HeaderLength = 8 * 1024;
+
+	private static final byte[] Ole2Signature = {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1};
+	private static final byte[] ZipSignature = {'P', 'K', 3, 4};
+	private static final byte[] PdfSignature = "%PDF-".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] RtfSignature = "{\\rtf".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PngSignature = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final byte[] GifSignature = "GIF8".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] JpegSignature = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+	private static final byte[] BmpSignature = "BM".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TiffLittleEndianSignature = {'I', 'I', 42, 0};
+	private static final byte[] TiffBigEndianSignature = {'M', 'M', 0, 42};
+
+	private static final int BmpFileHeaderLength = 14;
+	private static final int[] BmpInfoHeaderLengths = {12, 40, 56, 108, 124};
+
+	private static final int Ole2SectorShiftOffset = 0x1E;
+	private static final int Ole2FirstDirectorySectorOffset = 0x30;
+	private static final int Ole2DirectoryEntryLength = 128;
+	private static final int Ole2StreamType = 2;
+	private static final int Ole2RootType = 5;
+
+	private static final int ZipLocalHeaderLength = 30;
+	private static final int ZipMethodStored = 0;
+	private static final int ZipMethodDeflated = 8;
+
+	/*
+	* Main parts of Office Open XML packages (as they are named in [Content_Types].xml) and media types of the packages.
+	*/
+	private static final String[][] OfficeOpenXmlContentTypes = {
+			{"wordprocessingml.document.main+xml", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"},
+			{"wordprocessingml.template.main+xml", "application/vnd.openxmlformats-officedocument.wordprocessingml.template"},
+			{"ms-excel.sheet.macroEnabled.main+xml", "application/vnd.ms-excel.sheet.macroEnabled.12"},
+			{"spreadsheetml.sheet.main+xml", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"},
+			{"spreadsheetml.template.main+xml", "application/vnd.openxmlformats-officedocument.spreadsheetml.template"},
+			{"presentationml.presentation.main+xml", "application/vnd.openxmlformats-officedocument.presentationml.presentation"},
+			{"presentationml.template.main+xml", "application/vnd.openxmlformats-officedocument.presentationml.template"},
+			{"visio.drawing.main+xml", "application/vnd-ms-visio.drawing"}
+	};
+
+	/*
+	* Main parts of Office Open XML packages, used when [Content_Types].xml can't be read.
+	*/
+	private static final String[][] OfficeOpenXmlMainParts = {
+			{"word/document.xml", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"},
+			{"xl/workbook.xml", "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"},
+			{"ppt/presentation.xml", "application/vnd.openxmlformats-officedocument.presentationml.presentation"}
+	};
+
+	/*
+	* Names of OLE2 streams in the root storage and media types of the documents that contain them.
+	*/
+	private static final String[][] Ole2StreamNames = {
+			{"WordDocument", "application/msword"},
+			{"Workbook", "application/vnd.ms-excel"},
+			{"Book", "application/vnd.ms-excel"},
+			{"PowerPoint Document", "application/vnd.ms-powerpoint"},
+			{"VisioDocument", "application/vnd-visio"}
+	};
+
+	private DocumentSniffer() {
+
+	}
+
+	public static Optional<String> sniffMediaType(byte[] document) {
+		return sniffMediaType(document, Math.min(document.length, HeaderLength));
+	}
+
+	public static Optional<String> sniffMediaType(Path file) {
+		try(InputStream in = Files.newInputStream(file)) {
+			byte[] header = in.readNBytes(HeaderLength);
+			return sniffMediaType(header, header.length);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to read document header: " + file, e);
+		}
+	}
+
+
+	private static Optional<String> sniffMediaType(byte[] header, int length) {
+		if(startsWith(header, length, PdfSignature)) return Optional.of("application/pdf");
+		if(startsWith(header, length, RtfSignature)) return Optional.of("text/rtf");
+		if(startsWith(header, length, Ole2Signature)) return sniffOle2(header, length);
+		if(startsWith(header, length, ZipSignature)) return sniffZip(header, length);
+		if(startsWith(header, length, PngSignature)) return Optional.of("image/png");
+		if(startsWith(header, length, GifSignature)) return Optional.of("image/gif");
+		if(startsWith(header, length, JpegSignature)) return Optional.of("image/jpeg");
+		if(startsWith(header, length, TiffLittleEndianSignature) || startsWith(header, length, TiffBigEndianSignature))
+			return Optional.of("image/tiff");
+		if(startsWith(header, length, BmpSignature) && isBmpHeader(header, length)) return Optional.of("image/bmp");
+		return Optional.empty();
+	}
+
+	/*
+	* 'BM' is a common start of text, so a BMP is recognized only if the reserved fields of the file header are zero
+	* and the following info header has one of the known sizes.
+	*/
+	private static boolean isBmpHeader(byte[] header, int length) {
+		if(length < BmpFileHeaderLength + 4 || readInt(header, 6) != 0)
+			return false;
+
+		int infoHeaderLength = readInt(header, BmpFileHeaderLength);
+		for(int knownLength : BmpInfoHeaderLengths)
+			if(infoHeaderLength == knownLength)
+				return true;
+		return false;
+	}
+
+	/*
+	* The type of an OLE2 document is determined by the streams of its root storage. Only the first sector
+	* of the directory is read, and only if it is within the header. Streams of embedded objects are in nested storages
+	* and are ignored. If the root streams can't be read, the result is empty and the format is left to LibreOffice.
+	*/
+	private static Optional<String> sniffOle2(byte[] header, int length) {
+		if(length < Ole2FirstDirectorySectorOffset + 4)
+			return Optional.empty();
+
+		int sectorShift = readUnsignedShort(header, Ole2SectorShiftOffset);
+		int firstDirectorySector = readInt(header, Ole2FirstDirectorySectorOffset);
+		if((sectorShift != 9 && sectorShift != 12) || firstDirectorySector < 0)
+			return Optional.empty();
+
+		long directoryOffset = (firstDirectorySector + 1L) << sectorShift;
+		int directoryLength = (int) Math.min(1L << sectorShift, length - directoryOffset);
+		if(directoryLength < Ole2DirectoryEntryLength || header[(int) directoryOffset + 0x42] != Ole2RootType)
+			return Optional.empty();
+
+		List<String> rootStreams = ole2RootStreams(header, (int) directoryOffset, directoryLength / Ole2DirectoryEntryLength);
+		for(String[] streamName : Ole2StreamNames)
+			if(rootStreams.contains(streamName[0]))
+				return Optional.of(streamName[1]);
+		return Optional.empty();
+	}
+
+	/*
+	* Children of a storage are a binary tree: the storage refers to one of them, and each child refers
+	* to its left and right siblings. Entries outside the read part of the directory are skipped.
+	*/
+	private static List<String> ole2RootStreams(byte[] header, int directoryOffset, int entriesNumber) {
+		List<String> streams = new ArrayList<>();
+		Deque<Integer> entries = new ArrayDeque<>();
+		boolean[] visited = new boolean[entriesNumber];
+		entries.push(readInt(header, directoryOffset + 0x4C));
+		while(!entries.isEmpty()) {
+			int entry = entries.pop();
+			if(entry <= 0 || entry >= entriesNumber || visited[entry])
+				continue;
+
+			visited[entry] = true;
+			int entryOffset = directoryOffset + entry * Ole2DirectoryEntryLength;
+			int nameLength = Math.min(readUnsignedShort(header, entryOffset + 0x40), 64);
+			if(header[entryOffset + 0x42] == Ole2StreamType && nameLength >= 2)
+				streams.add(new String(header, entryOffset, nameLength - 2, StandardCharsets.UTF_16LE));
+			entries.push(readInt(header, entryOffset + 0x44));
+			entries.push(readInt(header, entryOffset + 0x48));
+		}
+		return streams;
+	}
+
+	/*
+	* OpenDocument packages start with an uncompressed 'mimetype' entry. Office Open XML packages usually start with
+	* [Content_Types].xml; otherwise they are recognized by the names of the following entries. Entries written
+	* with a data descriptor don't have their size in the local header, so the rest of the header
+	* is searched for the names of the main parts.
+	*/
+	private static Optional<String> sniffZip(byte[] header, int length) {
+		int offset = 0;
+		while(offset + ZipLocalHeaderLength <= length && matches(header, offset, length, ZipSignature)) {
+			boolean hasDataDescriptor = (readUnsignedShort(header, offset + 6) & 0x08) != 0;
+			int method = readUnsignedShort(header, offset + 8);
+			int compressedSize = readInt(header, offset + 18);
+			int nameLength = readUnsignedShort(header, offset + 26);
+			int extraLength = readUnsignedShort(header, offset + 28);
+			int dataOffset = offset + ZipLocalHeaderLength + nameLength + extraLength;
+			if(dataOffset > length || compressedSize < 0)
+				break;
+
+			String name = new String(header, offset + ZipLocalHeaderLength, nameLength, StandardCharsets.UTF_8);
+			int dataLength = hasDataDescriptor ? length - dataOffset : Math.min(compressedSize, length - dataOffset);
+			if(name.equals("mimetype") && method == ZipMethodStored && !hasDataDescriptor)
+				return Optional.of(new String(header, dataOffset, dataLength, StandardCharsets.US_ASCII).trim());
+			if(name.equals("[Content_Types].xml")) {
+				Optional<String> mediaType = entryContent(header, dataOffset, dataLength, method)
+						.flatMap(DocumentSniffer::officeOpenXmlMediaType);
+				if(mediaType.isPresent())
+					return mediaType;
+			}
+			Optional<String> mediaType = officeOpenXmlMediaTypeByPartName(name);
+			if(mediaType.isPresent() || hasDataDescriptor)
+				return mediaType.or(() -> officeOpenXmlMediaTypeByPartNames(header, length));
+
+			long nextOffset = (long) dataOffset + compressedSize;
+			if(nextOffset > length)
+				break;
+			offset = (int) nextOffset;
+		}
+		return Optional.empty();
+	}
+
+	private static Optional<String> entryContent(byte[] header, int offset, int length, int method) {
+		if(method == ZipMethodStored)
+			return Optional.of(new String(header, offset, length, StandardCharsets.UTF_8));
+		if(method != ZipMethodDeflated)
+			return Optional.empty();
+
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(header, offset, length);
+			byte[] content = new byte[64 * 1024];
+			int contentLength = inflater.inflate(content);
+			return Optional.of(new String(content, 0, contentLength, StandardCharsets.UTF_8));
+		} catch(DataFormatException e) {
+			return Optional.empty();
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static Optional<String> officeOpenXmlMediaType(String contentTypes) {
+		for(String[] contentType : OfficeOpenXmlContentTypes)
+			if(contentTypes.contains(contentType[0]))
+				return Optional.of(contentType[1]);
+		return Optional.empty();
+	}
+
+	private static Optional<String> officeOpenXmlMediaTypeByPartName(String name) {
+		for(String[] mainPart : OfficeOpenXmlMainParts)
+			if(name.equals(mainPart[0]))
+				return Optional.of(mainPart[1]);
+		return Optional.empty();
+	}
+
+	private static Optional<String> officeOpenXmlMediaTypeByPartNames(byte[] header, int length) {
+		for(String[] mainPart : OfficeOpenXmlMainParts)
+			if(indexOf(header, length, mainPart[0].getBytes(StandardCharsets.US_ASCII)) >= 0)
+				return Optional.of(mainPart[1]);
+		return Optional.empty();
+	}
+
+	private static boolean startsWith(byte[] header, int length, byte[] signature) {
+		return matches(header, 0, length, signature);
+	}
+
+	private static boolean matches(byte[] header, int offset, int length, byte[] signature) {
+		return offset + signature.length <= length &&
+				Arrays.equals(header, offset, offset + signature.length, signature, 0, signature.length);
+	}
+
+	private static int indexOf(byte[] header, int length, byte[] pattern) {
+		for(int i = 0; i + pattern.length <= length; i++)
+			if(matches(header, i, length, pattern))
+				return i;
+		return -1;
+	}
+
+	private static int readUnsignedShort(byte[] header, int offset) {
+		return (header[offset] & 0xFF) | (header[offset + 1] & 0xFF) << 8;
+	}
+
+	private static int readInt(byte[] header, int offset) {
+		return readUnsignedShort(header, offset) | readUnsignedShort(header, offset + 2) << 16;
+	}
+}
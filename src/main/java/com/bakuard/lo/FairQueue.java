@@ -0,0 +1,105 @@
+package com.bakuard.lo;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+/*
+* Queue of waiting calls. Calls are taken by priority class and, within one class, by weighted fair queuing
+* across tenants: each call gets a virtual finish time = max(virtual time of the class, finish time of
+* the previous call of the same tenant) + 1 / weight of the tenant, and the call with the least finish time
+* is taken first. So while several tenants wait, each of them gets a share of the slots proportional
+* to its weight, whatever the number of calls each tenant has queued.
+*
+* Not thread-safe: the owner synchronizes access.
+*/
+final class FairQueue<T> {
+
+	private final ToIntFunction<String> tenantWeights;
+	private final EnumMap<ConversionPriority, PriorityClass> classes = new EnumMap<>(ConversionPriority.class);
+	private long sequence;
+	private int size;
+
+	FairQueue(ToIntFunction<String> tenantWeights) {
+		this.tenantWeights = tenantWeights;
+		for(ConversionPriority priority : ConversionPriority.values())
+			classes.put(priority, new PriorityClass());
+	}
+
+	void add(ConversionPriority priority, String tenant, T item) {
+		PriorityClass priorityClass = classes.get(priority);
+		double weight = Math.max(1, tenantWeights.applyAsInt(tenant));
+		double start = Math.max(priorityClass.virtualTime, priorityClass.tenantFinishTimes.getOrDefault(tenant, 0.0));
+		double finish = start + 1.0 / weight;
+		priorityClass.tenantFinishTimes.put(tenant, finish);
+		priorityClass.entries.add(new Entry<>(item, start, finish, sequence++));
+		++size;
+	}
+
+	T peek() {
+		PriorityClass priorityClass = firstNonEmptyClass();
+		return priorityClass != null ? priorityClass.entries.peek().item : null;
+	}
+
+	T poll() {
+		PriorityClass priorityClass = firstNonEmptyClass();
+		if(priorityClass == null)
+			return null;
+
+		Entry<T> entry = priorityClass.entries.poll();
+		priorityClass.virtualTime = Math.max(priorityClass.virtualTime, entry.start);
+		if(priorityClass.entries.isEmpty())
+			priorityClass.tenantFinishTimes.clear();
+		--size;
+		return entry.item;
+	}
+
+	boolean remove(T item) {
+		for(PriorityClass priorityClass : classes.values()) {
+			if(priorityClass.entries.removeIf(entry -> entry.item == item)) {
+				--size;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+
+	private PriorityClass firstNonEmptyClass() {
+		for(PriorityClass priorityClass : classes.values())
+			if(!priorityClass.entries.isEmpty())
+				return priorityClass;
+		return null;
+	}
+
+
+	private final class PriorityClass {
+
+		private final PriorityQueue<Entry<T>> entries = new PriorityQueue<>(
+				Comparator.<Entry<T>>comparingDouble(entry -> entry.finish).thenComparingLong(entry -> entry.sequence));
+		private final Map<String, Double> tenantFinishTimes = new HashMap<>();
+		private double virtualTime;
+	}
+
+	private static final class Entry<T> {
+
+		private final T item;
+		private final double start;
+		private final double finish;
+		private final long sequence;
+
+		private Entry(T item, double start, double finish, long sequence) {
+			this.item = item;
+			this.start = start;
+			this.finish = finish;
+			this.sequence = sequence;
+		}
+	}
+}
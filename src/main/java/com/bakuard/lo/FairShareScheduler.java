@@ -0,0 +1,139 @@
+package com.bakuard.lo;
+
+import java.util.function.ToIntFunction;
+
+/*
+* Slots for documents of a LibreOffice process or of a pool. Waiting calls get free slots in the order of FairQueue:
+* by priority class, then by weighted fair share of their tenants. reservedSlots slots are kept for HIGH
+* priority calls: calls of other classes wait while only the reserved slots are free. The number of slots
+* can be changed while slots are held: after a decrease, the new limit takes effect as the held slots are released.
+*/
+final class FairShareScheduler {
+
+	private final FairQueue<Waiter> waiters;
+	private int slots;
+	private int reservedSlots;
+	private int usedSlots;
+
+	FairShareScheduler(int slots, ToIntFunction<String> tenantWeights) {
+		this.slots = slots;
+		this.waiters = new FairQueue<>(tenantWeights);
+	}
+
+	/*
+	* A call that is cancelled with its handle while it waits leaves the queue at once and fails with
+	* ConversionCancelledException. handle can be null.
+	*/
+	void acquire(ConversionPriority priority, String tenant, ConversionHandle handle) throws InterruptedException {
+		Waiter waiter = new Waiter(priority);
+		Runnable canceller = () -> cancel(waiter);
+		if(handle != null)
+			handle.attach(canceller);
+		try {
+			await(tenant, waiter);
+		} finally {
+			if(handle != null)
+				handle.detach(canceller);
+		}
+	}
+
+	synchronized void release() {
+		--usedSlots;
+		dispatch();
+	}
+
+	synchronized void resize(int slots) {
+		this.slots = slots;
+		dispatch();
+	}
+
+	synchronized void setReservedSlots(int reservedSlots) {
+		this.reservedSlots = reservedSlots;
+		dispatch();
+	}
+
+	synchronized int getSlots() {
+		return slots;
+	}
+
+	synchronized int getReservedSlots() {
+		return reservedSlots;
+	}
+
+	synchronized int getFreeSlots() {
+		return Math.max(0, slots - usedSlots);
+	}
+
+	synchronized int getWaitingNumber() {
+		return waiters.size();
+	}
+
+
+	private synchronized void await(String tenant, Waiter waiter) throws InterruptedException {
+		if(waiter.cancelled)
+			throw new ConversionCancelledException("LibreOffice task was cancelled.");
+		waiters.add(waiter.priority, tenant, waiter);
+		dispatch();
+
+		try {
+			while(!waiter.granted && !waiter.cancelled)
+				wait();
+		} catch(InterruptedException e) {
+			if(waiter.granted)
+				release();
+			else
+				waiters.remove(waiter);
+			throw e;
+		}
+
+		if(!waiter.granted)
+			throw new ConversionCancelledException("LibreOffice task was cancelled.");
+	}
+
+	/*
+	* A waiter that has already got a slot keeps it: the call releases the slot itself when it sees the cancellation.
+	*/
+	private synchronized void cancel(Waiter waiter) {
+		if(waiter.granted || waiter.cancelled)
+			return;
+
+		waiter.cancelled = true;
+		waiters.remove(waiter);
+		dispatch();
+		notifyAll();
+	}
+
+	/*
+	* The first waiter in the queue is the most preferred one, if it can't take a slot, the others can't either.
+	*/
+	private void dispatch() {
+		boolean granted = false;
+		Waiter waiter = waiters.peek();
+		while(waiter != null && canTakeSlot(waiter.priority)) {
+			waiters.poll();
+			waiter.granted = true;
+			++usedSlots;
+			granted = true;
+			waiter = waiters.peek();
+		}
+		if(granted)
+			notifyAll();
+	}
+
+	private boolean canTakeSlot(ConversionPriority priority) {
+		int limit = priority == ConversionPriority.HIGH ? slots : slots - Math.min(reservedSlots, slots - 1);
+		return usedSlots < limit;
+	}
+
+
+	private static final class Waiter {
+
+		private final ConversionPriority priority;
+		private boolean granted;
+		private boolean cancelled;
+
+		private Waiter(ConversionPriority priority) {
+			this.priority = priority;
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.bakuard.lo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+* Conversions in progress by the key of their result (see ConversionCache.key()). The first caller with a key becomes
+* the leader of the flight and converts the document, the callers with the same key that come while the conversion
+* is in progress become followers and receive a copy of the leader's result. The result is shared through
+* a temporary file, that is deleted when the last follower has copied it. A follower that stops waiting
+* (timeout, cancellation, interruption) leaves the flight, so each follower must release it on every path.
+*
+* The registry can be shared by several converters (the workers of LOConverterPool share one).
+*/
+final class InFlightConversions {
+
+	private static final Logger logger = LoggerFactory.getLogger(InFlightConversions.class.getName());
+
+	private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+	/*
+	* A flight that is being completed doesn't accept followers any more, so a new flight is started for the key.
+	*/
+	Flight join(String key) {
+		while(true) {
+			Flight created = new Flight(key, true);
+			Flight existing = flights.putIfAbsent(key, created);
+			if(existing == null)
+				return created;
+			if(existing.addFollower())
+				return new Flight(existing);
+			flights.remove(key, existing);
+		}
+	}
+
+	int size() {
+		return flights.size();
+	}
+
+
+	final class Flight {
+
+		private final String key;
+		private final boolean leader;
+		private final Flight shared;
+		private final CompletableFuture<Path> result;
+		private int followers;
+		private int unreleasedFollowers;
+		private boolean closed;
+
+		private Flight(String key, boolean leader) {
+			this.key = key;
+			this.leader = leader;
+			this.shared = this;
+			this.result = new CompletableFuture<>();
+		}
+
+		private Flight(Flight shared) {
+			this.key = shared.key;
+			this.leader = false;
+			this.shared = shared;
+			this.result = shared.result;
+		}
+
+		boolean isLeader() {
+			return leader;
+		}
+
+		/*
+		* For the leader: stops accepting followers and returns their number.
+		*/
+		int close() {
+			synchronized(shared) {
+				if(!shared.closed) {
+					shared.closed = true;
+					shared.unreleasedFollowers = shared.followers;
+					flights.remove(key, shared);
+				}
+				return shared.followers;
+			}
+		}
+
+		/*
+		* For the leader: result is a temporary file that belongs to the flight from now on. If all followers
+		* have already left, it's deleted at once.
+		*/
+		void complete(Path result) {
+			boolean unclaimed;
+			synchronized(shared) {
+				this.result.complete(result);
+				unclaimed = shared.unreleasedFollowers == 0;
+			}
+			if(unclaimed)
+				deleteSharedResult(result);
+		}
+
+		/*
+		* For the leader: the followers convert the document themselves.
+		*/
+		void fail() {
+			close();
+			result.complete(null);
+		}
+
+		/*
+		* For a follower: the leader's result or null if the leader has failed. Waits no longer than timeout,
+		* the handle of the follower's call stops the waiting too.
+		*/
+		Path awaitResult(Duration timeout, ConversionHandle handle) {
+			CompletableFuture<Path> waiting = result.copy();
+			Runnable canceller = () -> waiting.cancel(false);
+			if(handle != null)
+				handle.attach(canceller);
+			try {
+				return waiting.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for an identical conversion in progress.", e);
+			} catch(TimeoutException e) {
+				throw new ConversionTimeoutException("Timeout " + timeout + " has expired while waiting for an identical conversion in progress.", e);
+			} catch(CancellationException e) {
+				throw new ConversionCancelledException("LibreOffice task was cancelled.", e);
+			} catch(ExecutionException e) {
+				return null;
+			} finally {
+				if(handle != null)
+					handle.detach(canceller);
+			}
+		}
+
+		/*
+		* For a follower: called after the result has been copied or the follower has stopped waiting.
+		* The last follower deletes the temporary file.
+		*/
+		void release() {
+			boolean last;
+			synchronized(shared) {
+				if(!shared.closed) {
+					--shared.followers;
+					return;
+				}
+				last = --shared.unreleasedFollowers == 0;
+			}
+			Path sharedResult = result.getNow(null);
+			if(last && sharedResult != null)
+				deleteSharedResult(sharedResult);
+		}
+
+		private void deleteSharedResult(Path sharedResult) {
+			if(sharedResult == null)
+				return;
+
+			try {
+				Files.deleteIfExists(sharedResult);
+			} catch(IOException e) {
+				logger.warn("Fail to delete temporary file with shared conversion result {}", sharedResult, e);
+			}
+		}
+
+		private synchronized boolean addFollower() {
+			if(closed)
+				return false;
+			++followers;
+			return true;
+		}
+	}
+}
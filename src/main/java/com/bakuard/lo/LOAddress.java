@@ -0,0 +1,99 @@
+package com.bakuard.lo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/*
+* Address at which a LibreOffice process accepts UNO connections: a TCP socket on localhost or a named pipe.
+* A named pipe doesn't need a free port and doesn't go through the loopback TCP stack, but the Java side needs
+* the native library jpipe of LibreOffice: the 'program' directory of LibreOffice must be in java.library.path.
+*/
+public class LOAddress {
+
+	public static LOAddress socket(int port) {
+		if(port < 1 || port > 65535)
+			throw new IllegalArgumentException("Incorrect port number: " + port);
+		return new LOAddress(port, null);
+	}
+
+	public static LOAddress pipe(String pipeName) {
+		if(pipeName == null || !pipeName.matches("[A-Za-z0-9_.-]+"))
+			throw new IllegalArgumentException("Pipe name must consist of letters, digits, '_', '.' and '-': " + pipeName);
+		return new LOAddress(-1, pipeName);
+	}
+
+	public static List<LOAddress> sockets(int firstPort, int count) {
+		List<LOAddress> addresses = new ArrayList<>();
+		for(int i = 0; i < count; i++)
+			addresses.add(socket(firstPort + i));
+		return Collections.unmodifiableList(addresses);
+	}
+
+	/*
+	* Pipe names are generated as pipeNamePrefix-0, pipeNamePrefix-1, ...
+	*/
+	public static List<LOAddress> pipes(String pipeNamePrefix, int count) {
+		List<LOAddress> addresses = new ArrayList<>();
+		for(int i = 0; i < count; i++)
+			addresses.add(pipe(pipeNamePrefix + "-" + i));
+		return Collections.unmodifiableList(addresses);
+	}
+
+
+	private final int port;
+	private final String pipeName;
+
+	private LOAddress(int port, String pipeName) {
+		this.port = port;
+		this.pipeName = pipeName;
+	}
+
+	public boolean isPipe() {
+		return pipeName != null;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getPipeName() {
+		return pipeName;
+	}
+
+	/*
+	* Connection description in the UNO URL format without protocol and object name.
+	*/
+	public String getConnectionString() {
+		return isPipe() ?
+				"pipe,name=" + pipeName :
+				String.format("socket,host=127.0.0.1,port=%d,tcpNoDelay=1", port);
+	}
+
+	/*
+	* Unique name of the address, that can be used in file names.
+	*/
+	public String getId() {
+		return isPipe() ?
+				"pipe-" + pipeName :
+				"socket-localhost-" + port + "-tcpNoDelay-1";
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(o == null || getClass() != o.getClass()) return false;
+		LOAddress that = (LOAddress) o;
+		return port == that.port && Objects.equals(pipeName, that.pipeName);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(port, pipeName);
+	}
+
+	@Override
+	public String toString() {
+		return isPipe() ? "pipe " + pipeName : "port " + port;
+	}
+}
@@ -7,8 +7,10 @@ import com.sun.star.comp.helper.Bootstrap;
 import com.sun.star.connection.XConnection;
 import com.sun.star.connection.XConnector;
 import com.sun.star.frame.*;
+import com.sun.star.lang.EventObject;
 import com.sun.star.lang.IllegalArgumentException;
 import com.sun.star.lang.XComponent;
+import com.sun.star.lang.XEventListener;
 import com.sun.star.lang.XMultiComponentFactory;
 import com.sun.star.lib.uno.helper.UnoUrl;
 import com.sun.star.uno.UnoRuntime;
@@ -16,30 +18,66 @@ import com.sun.star.uno.XComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LOContext {
 
 	private static final Logger logger = LoggerFactory.getLogger(LOContext.class.getName());
 
+	private static final String PipeLibraryName = "jpipe";
+	private static volatile boolean pipeLibraryLoaded;
+
+	/*
+	* Named pipes are served by the native library jpipe from the 'program' directory of LibreOffice. The library
+	* is loaded by jurt with System.loadLibrary(), so this directory must be in java.library.path of the JVM.
+	* It's checked once, before any process is started.
+	*/
+	static void assertPipeLibraryIsAvailable(String officeHome) {
+		if(pipeLibraryLoaded)
+			return;
+
+		try {
+			System.loadLibrary(PipeLibraryName);
+			pipeLibraryLoaded = true;
+		} catch(UnsatisfiedLinkError e) {
+			throw new RuntimeException("Fail to load native library '" + PipeLibraryName + "' required for named pipes. " +
+					"Add the LibreOffice program directory to java.library.path, for example: -Djava.library.path=" +
+					Paths.get(officeHome).resolve("program").toAbsolutePath(), e);
+		}
+	}
+
+
 	private final LOProcess officeProcess;
 
 	private final String unoUrlAsString;
 	private final UnoUrl unoUrl;
-	private XBridge bridge;
 
-	private XComponentContext context;
-	private XMultiComponentFactory multiCompFactory;
+	/*
+	* The connection is shared by all calls of the converter. The UNO bridge allows concurrent remote calls,
+	* so only connecting and closing are serialized; the references are volatile, so each call sees
+	* the objects of the latest connection. Documents are held by the calls themselves (see ConversionJob).
+	*/
+	private volatile XBridge bridge;
+
+	private volatile XComponentContext context;
+	private volatile XMultiComponentFactory multiCompFactory;
+
+	private volatile XDesktop desktopInterface;
+	private volatile XComponentLoader compLoader;
+	private volatile XDispatchHelper dispatchHelperInterface;
 
-	private XDesktop desktopInterface;
-	private XComponentLoader compLoader;
-	private XDispatchHelper dispatchHelperInterface;
-	private XDispatchProvider dispatchProvider;
-	private XComponent currentDocument;
+	/*
+	* The connection is considered alive until the bridge is disposed or the LibreOffice process exits.
+	* Each connection has its own generation, so events of a previous connection don't affect the current one.
+	*/
+	private volatile boolean connected;
+	private final AtomicLong connectionGeneration = new AtomicLong();
 
 	public LOContext(LOProcess officeProcess) {
 		this.officeProcess = officeProcess;
-		this.unoUrlAsString = String.format("socket,host=127.0.0.1,port=%d,tcpNoDelay=1", officeProcess.getPort());
+		this.unoUrlAsString = officeProcess.getAddress().getConnectionString();
 		this.unoUrl = getUnoUrl(unoUrlAsString);
 	}
 
@@ -47,20 +85,27 @@ public class LOContext {
 	* The LibreOffice process is not immediately ready to accept connections after it starts.
 	* If the connection attempt fails at first, you should wait for a short while and then try again.
 	* (This approach was taken from the JODConverter library.)
+	* The first attempt is made without waiting: a process with a ready profile is often already available.
 	*/
-	public void connectOfficeProcess(int attemptNumber) {
+	public synchronized void connectOfficeProcess(int attemptNumber) {
 		for(int i = 0; i < attemptNumber; i++) {
 			try {
-				officeProcess.waitOffice(1, TimeUnit.SECONDS);
+				if(i > 0)
+					officeProcess.waitOffice(1, TimeUnit.SECONDS);
 
 				connect();
 				initializeCompFactoryAndComponentContext();
 				initializeDesktop();
+				watchConnection();
 
 				logger.info("LibreOffice process connection established");
 				return;
 			} catch(ProcessUnavailableException e) {
 				throw e;
+			} catch(LinkageError e) {
+				officeProcess.terminate();
+				throw new ProcessUnavailableException("Fail to connect to LibreOffice process: native library of UNO connection " +
+						"can't be loaded. " + e.getMessage(), e);
 			} catch(Exception e) {
 				logger.debug("Fail to connect to LibreOffice. Attempt {}/{}. Reason: {}", i + 1, attemptNumber, e.getMessage());
 			}
@@ -69,7 +114,10 @@ public class LOContext {
 		throw new ProcessUnavailableException("Failed to connect to LibreOffice process after " + attemptNumber + " attempts.");
 	}
 
-	public void closeConnection() {
+	public synchronized void closeConnection() {
+		connected = false;
+		connectionGeneration.incrementAndGet();
+		XBridge bridge = this.bridge;
 		if(bridge != null) {
 			XComponent bridgeComp = UnoRuntime.queryInterface(XComponent.class, bridge);
 			bridgeComp.dispose();
@@ -77,29 +125,53 @@ public class LOContext {
 		}
 	}
 
-	public XComponentLoader getCompLoader() {
-		return compLoader;
+	public boolean isConnected() {
+		return connected;
 	}
 
-	public XDispatchHelper getDispatchHelperInterface() {
-		return dispatchHelperInterface;
+	/*
+	* Generation of the current connection. A call remembers it before using the process, so a crash
+	* that it detects later doesn't mark a connection established after the crash as lost.
+	*/
+	long getConnectionGeneration() {
+		return connectionGeneration.get();
 	}
 
-	public XDispatchProvider getDispatchProvider() {
-		return dispatchProvider;
+	/*
+	* Marks the connection of the given generation as lost at once, without waiting for the disposing event of
+	* the bridge, which is delivered asynchronously. Does nothing if that connection has already been replaced.
+	*/
+	void markConnectionLost(long generation, String reason) {
+		connectionLost(generation, reason);
 	}
 
-	public void refreshCurrentFrame() {
-		XFrame frame = desktopInterface.getCurrentFrame();
-		dispatchProvider = UnoRuntime.queryInterface(XDispatchProvider.class, frame);
+	/*
+	* Makes one remote call to check that LibreOffice process still responds.
+	*/
+	public boolean ping() {
+		if(!connected)
+			return false;
+
+		try {
+			desktopInterface.getCurrentFrame();
+			return true;
+		} catch(Exception e) {
+			logger.debug("LibreOffice process doesn't respond. Reason: {}", e.getMessage());
+			connected = false;
+			return false;
+		}
 	}
 
-	public void setCurrentDocument(XComponent currentDocument) {
-		this.currentDocument = currentDocument;
+	public XComponentLoader getCompLoader() {
+		return compLoader;
 	}
 
-	public XComponent getCurrentDocument() {
-		return currentDocument;
+	public XDispatchHelper getDispatchHelperInterface() {
+		return dispatchHelperInterface;
+	}
+
+	public Object createService(String serviceName) throws Exception {
+		return multiCompFactory.createInstanceWithContext(serviceName, context);
 	}
 
 
@@ -127,6 +199,29 @@ public class LOContext {
 	}
 
 
+	private void watchConnection() {
+		long generation = connectionGeneration.incrementAndGet();
+
+		XComponent bridgeComp = UnoRuntime.queryInterface(XComponent.class, bridge);
+		bridgeComp.addEventListener(new XEventListener() {
+			@Override
+			public void disposing(EventObject event) {
+				connectionLost(generation, "bridge with LibreOffice process was disposed");
+			}
+		});
+		officeProcess.onExit().thenRun(() -> connectionLost(generation, "LibreOffice process has exited"));
+
+		connected = true;
+	}
+
+	private void connectionLost(long generation, String reason) {
+		if(connectionGeneration.get() == generation && connected) {
+			connected = false;
+			logger.warn("Connection with LibreOffice process was lost: {}.", reason);
+		}
+	}
+
+
 	private XConnection createXConnection(XComponentContext context, XMultiComponentFactory multiCompFactory) throws Exception {
 		Object connector = multiCompFactory.createInstanceWithContext("com.sun.star.connection.Connector", context);
 		XConnector connectorInterface = UnoRuntime.queryInterface(XConnector.class, connector);
@@ -136,7 +231,7 @@ public class LOContext {
 	private XBridge createBridge(XConnection connection, XComponentContext context, XMultiComponentFactory multiCompFactory) throws Exception {
 		Object bridgeFactory = multiCompFactory.createInstanceWithContext("com.sun.star.bridge.BridgeFactory", context);
 		XBridgeFactory bridgeFactoryInterface = UnoRuntime.queryInterface(XBridgeFactory.class, bridgeFactory);
-		String bridgeName = "DocumentConverterBridge(port=" + officeProcess.getPort() + ")";
+		String bridgeName = "DocumentConverterBridge(" + officeProcess.getAddress().getId() + ")";
 		return bridgeFactoryInterface.createBridge(bridgeName, unoUrl.getProtocolAndParametersAsString(), connection, null);
 	}
 
@@ -1,97 +1,496 @@
 package com.bakuard.lo;
 
+import com.sun.star.awt.Size;
 import com.sun.star.beans.PropertyValue;
+import com.sun.star.beans.XPropertySet;
+import com.sun.star.container.XNameAccess;
+import com.sun.star.document.XExporter;
+import com.sun.star.document.XFilter;
+import com.sun.star.drawing.XDrawPages;
+import com.sun.star.drawing.XDrawPagesSupplier;
 import com.sun.star.frame.XComponentLoader;
 import com.sun.star.frame.XDispatchProvider;
 import com.sun.star.frame.XFrame;
+import com.sun.star.frame.XModel;
 import com.sun.star.frame.XStorable;
 import com.sun.star.lang.DisposedException;
 import com.sun.star.lang.XComponent;
 import com.sun.star.lang.XServiceInfo;
+import com.sun.star.lib.uno.adapter.ByteArrayToXInputStreamAdapter;
+import com.sun.star.lib.uno.adapter.OutputStreamToXOutputStreamAdapter;
+import com.sun.star.style.XStyleFamiliesSupplier;
 import com.sun.star.text.XTextDocument;
+import com.sun.star.uno.AnyConverter;
 import com.sun.star.uno.UnoRuntime;
+import com.sun.star.util.CloseVetoException;
 import com.sun.star.util.XCloseable;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 public class LOConverter {
 
 	private static final Logger logger = LoggerFactory.getLogger(LOConverter.class.getName());
 
 	private static final int ConnectionAttempts = 10;
+	private static final Duration DefaultTimeout = Duration.ofMinutes(2);
+	private static final Duration DefaultLivenessCheckIdlePeriod = Duration.ofSeconds(30);
+	private static final String SharedResultPrefix = "loConverter-shared-";
+	private static final Duration DefaultCancellationGracePeriod = Duration.ofSeconds(10);
+
+	private static final ExecutorService recoveryExecutor = Executors.newCachedThreadPool(task -> {
+		Thread thread = new Thread(task, "loConverter-recovery");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private final LOProcess process;
 	private final LOContext currentContext;
 
-	private final PropertiesSettings propertiesSettings;
+	private volatile PropertiesSettings propertiesSettings;
+
+	private volatile boolean streamLoadingEnabled = true;
+	private volatile boolean formatSniffingEnabled = true;
+	private volatile ConversionCache conversionCache;
+	private volatile SourceSpooler sourceSpooler = SourceSpooler.defaults();
+	private volatile boolean singleFlightEnabled;
+	private volatile InFlightConversions inFlightConversions = new InFlightConversions();
+
+	private volatile Duration defaultTimeout = DefaultTimeout;
+	private final Map<String, Duration> defaultTimeouts = new ConcurrentHashMap<>();
+	private volatile Duration cancellationGracePeriod = DefaultCancellationGracePeriod;
+
+	private volatile Duration livenessCheckIdlePeriod = DefaultLivenessCheckIdlePeriod;
+	private volatile long lastActivityNanos = System.nanoTime();
+
+	private final List<ConversionListener> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile RecyclePolicy recyclePolicy = RecyclePolicy.none();
+	private final AtomicInteger conversionsSinceStart = new AtomicInteger();
+	private volatile long processStartNanos = System.nanoTime();
+	private volatile MemorySample memorySample;
+
+	/*
+	* startFailures and circuitOpenUntilNanos are guarded by lifecycleLock.
+	*/
+	private volatile RecoveryPolicy recoveryPolicy = RecoveryPolicy.defaults();
+	private volatile PoisonRegistry poisonRegistry = new PoisonRegistry();
+	private final AtomicBoolean restartScheduled = new AtomicBoolean();
+	private volatile long crashedConnectionGeneration = -1L;
+	private int startFailures;
+	private long circuitOpenUntilNanos;
+
+	/*
+	* A converter can be used by several threads. Each call holds its own document, the number of documents
+	* processed by the LibreOffice process at the same time is limited by documentSlots (one by default), waiting
+	* calls get free slots by their priority and the fair share of their tenants (see FairShareScheduler).
+	* Starting and terminating the process are serialized by lifecycleLock. Calls hold the read lock of
+	* processLock while they use the process; recycling takes the write lock, so it waits for the documents
+	* in progress, and new calls wait for the recycling (the lock is fair).
+	*/
+	private final Object lifecycleLock = new Object();
+	private final ReentrantReadWriteLock processLock = new ReentrantReadWriteLock(true);
+	private final Map<String, Integer> tenantWeights = new ConcurrentHashMap<>();
+	private final FairShareScheduler documentSlots = new FairShareScheduler(1, this::getTenantWeight);
+	private final AtomicInteger documentsInProgress = new AtomicInteger();
+	private final ConversionDispatcher selfDispatcher = (options, conversion) -> conversion.accept(this);
 
 	public LOConverter(int portNumber, String officeHome) {
-		process = new LOProcess(portNumber, officeHome);
+		this(LOAddress.socket(portNumber), officeHome);
+	}
+
+	public LOConverter(LOAddress address, String officeHome) {
+		if(address.isPipe())
+			LOContext.assertPipeLibraryIsAvailable(officeHome);
+
+		process = new LOProcess(address, officeHome);
 		currentContext = new LOContext(process);
-		propertiesSettings = new PropertiesSettings();
+		propertiesSettings = PropertiesSettings.shared();
 	}
 
-	private void startOfficeProcessAndConnect() {
-		if(!isConnectionAlive()) {
-			logger.info("Start libreOffice process and connect...");
-			process.start();
-			currentContext.connectOfficeProcess(ConnectionAttempts);
-		} else {
-			logger.debug("LibreOffice is already running and connected.");
+	/*
+	* If enabled (by default), documents from InputStream are passed to LibreOffice as 'private:stream'
+	* without writing them to disk. Otherwise, or if LibreOffice can't load the document from the stream
+	* (some import filters require a seekable file), the document is copied to a temporary file.
+	*/
+	public void setStreamLoadingEnabled(boolean streamLoadingEnabled) {
+		this.streamLoadingEnabled = streamLoadingEnabled;
+	}
+
+	public boolean isStreamLoadingEnabled() {
+		return streamLoadingEnabled;
+	}
+
+	/*
+	* If enabled (by default), the format of the source document is determined by its first bytes before loading
+	* into LibreOffice, so unsupported conversions fail without loading the document.
+	*/
+	public void setFormatSniffingEnabled(boolean formatSniffingEnabled) {
+		this.formatSniffingEnabled = formatSniffingEnabled;
+	}
+
+	public boolean isFormatSniffingEnabled() {
+		return formatSniffingEnabled;
+	}
+
+	/*
+	* If a cache is set, results of convert(...) with one target are looked up in the cache before
+	* LibreOffice is started or contacted, and are put into the cache after a successful conversion.
+	* Null disables the cache.
+	*/
+	public void setConversionCache(ConversionCache conversionCache) {
+		this.conversionCache = conversionCache;
+	}
+
+	public ConversionCache getConversionCache() {
+		return conversionCache;
+	}
+
+	/*
+	* Determines where documents from InputStream are kept while they are converted: in the heap or in files
+	* of the spill directory. By default, the spooler shared by all converters is used.
+	*/
+	public void setSourceSpooler(SourceSpooler sourceSpooler) {
+		this.sourceSpooler = Objects.requireNonNull(sourceSpooler, "sourceSpooler can't be null");
+	}
+
+	public SourceSpooler getSourceSpooler() {
+		return sourceSpooler;
+	}
+
+	/*
+	* If it's enabled, a call of convert(...) with one target that is identical to a conversion in progress
+	* (the same content of the source, target extension and properties) doesn't load the document again,
+	* but waits for the conversion in progress and receives a copy of its result. If that conversion fails,
+	* the waiting calls convert the document themselves. A waiting call stops after its timeout or when it's cancelled.
+	* Disabled by default, since each call has to hash the content of the source.
+	*/
+	public void setSingleFlightEnabled(boolean singleFlightEnabled) {
+		this.singleFlightEnabled = singleFlightEnabled;
+	}
+
+	public boolean isSingleFlightEnabled() {
+		return singleFlightEnabled;
+	}
+
+	/*
+	* Timeout of conversions to formats without their own default timeout and without
+	* a timeout in ConversionOptions. Two minutes by default.
+	*/
+	public void setDefaultTimeout(Duration defaultTimeout) {
+		assertTimeoutIsPositive(defaultTimeout);
+		this.defaultTimeout = defaultTimeout;
+	}
+
+	public void setDefaultTimeout(String targetExtension, Duration timeout) {
+		assertTimeoutIsPositive(timeout);
+		defaultTimeouts.put(targetExtension.toLowerCase(Locale.ROOT), timeout);
+	}
+
+	public Duration getDefaultTimeout(String targetExtension) {
+		return defaultTimeouts.getOrDefault(targetExtension.toLowerCase(Locale.ROOT), defaultTimeout);
+	}
+
+	/*
+	* When a call is cancelled or its timeout expires, the call closes its own document and the other documents
+	* of the LibreOffice process are not affected. If the call doesn't stop within this period, the process
+	* is terminated. Zero terminates the process immediately. 10 seconds by default.
+	*/
+	public void setCancellationGracePeriod(Duration cancellationGracePeriod) {
+		if(cancellationGracePeriod == null || cancellationGracePeriod.isNegative())
+			throw new IllegalArgumentException("Cancellation grace period must not be null or negative: " + cancellationGracePeriod);
+		this.cancellationGracePeriod = cancellationGracePeriod;
+	}
+
+	public Duration getCancellationGracePeriod() {
+		return cancellationGracePeriod;
+	}
+
+	/*
+	* Liveness of the connection is tracked by bridge and process events. In addition, if the converter
+	* has been idle for longer than this period, the connection is checked with a remote call before
+	* the next conversion. 30 seconds by default.
+	*/
+	public void setLivenessCheckIdlePeriod(Duration livenessCheckIdlePeriod) {
+		if(livenessCheckIdlePeriod == null || livenessCheckIdlePeriod.isNegative())
+			throw new IllegalArgumentException("Liveness check idle period must not be null or negative: " + livenessCheckIdlePeriod);
+		this.livenessCheckIdlePeriod = livenessCheckIdlePeriod;
+	}
+
+	public Duration getLivenessCheckIdlePeriod() {
+		return livenessCheckIdlePeriod;
+	}
+
+	/*
+	* The policy is checked after each conversion that was performed by LibreOffice. If one of its limits
+	* is reached, the process is terminated between conversions and is started again by the next conversion.
+	*/
+	public void setRecyclePolicy(RecyclePolicy recyclePolicy) {
+		this.recyclePolicy = recyclePolicy != null ? recyclePolicy : RecyclePolicy.none();
+	}
+
+	public RecyclePolicy getRecyclePolicy() {
+		return recyclePolicy;
+	}
+
+	/*
+	* The policy is applied when the LibreOffice process crashes during a conversion or fails to start.
+	* RecoveryPolicy.defaults() by default.
+	*/
+	public void setRecoveryPolicy(RecoveryPolicy recoveryPolicy) {
+		this.recoveryPolicy = recoveryPolicy != null ? recoveryPolicy : RecoveryPolicy.none();
+	}
+
+	public RecoveryPolicy getRecoveryPolicy() {
+		return recoveryPolicy;
+	}
+
+	/*
+	* Forgets the documents that have crashed LibreOffice, including the ones that were recognized as poison.
+	*/
+	public void clearPoisonDocuments() {
+		poisonRegistry.clear();
+	}
+
+	/*
+	* By default, the registry shared by all converters is used.
+	*/
+	public void setPropertiesSettings(PropertiesSettings propertiesSettings) {
+		this.propertiesSettings = Objects.requireNonNull(propertiesSettings, "propertiesSettings can't be null");
+	}
+
+	public void addConversionListener(ConversionListener listener) {
+		listeners.add(Objects.requireNonNull(listener, "listener can't be null"));
+	}
+
+	public void removeConversionListener(ConversionListener listener) {
+		listeners.remove(listener);
+	}
+
+	public LOAddress getAddress() {
+		return process.getAddress();
+	}
+
+	public void setProfileTemplate(LOProfileTemplate profileTemplate) {
+		process.setProfileTemplate(profileTemplate);
+	}
+
+	/*
+	* Max number of documents that are loaded, converted or stored by the LibreOffice process at the same time
+	* when the converter is used by several threads. One by default. Other threads wait for a free place.
+	*/
+	public void setMaxConcurrentDocuments(int maxConcurrentDocuments) {
+		if(maxConcurrentDocuments < 1)
+			throw new IllegalArgumentException("Max concurrent documents must be greater than 0, actual: " + maxConcurrentDocuments);
+		documentSlots.resize(maxConcurrentDocuments);
+	}
+
+	public int getMaxConcurrentDocuments() {
+		return documentSlots.getSlots();
+	}
+
+	/*
+	* Number of the concurrent documents that only calls with HIGH priority can take. Zero by default.
+	* Must be less than max concurrent documents, otherwise other calls would never get a place.
+	*/
+	public void setReservedHighPriorityDocuments(int reservedDocuments) {
+		if(reservedDocuments < 0 || reservedDocuments >= documentSlots.getSlots())
+			throw new IllegalArgumentException("Reserved documents must be in range [0, " + documentSlots.getSlots() + "), actual: " + reservedDocuments);
+		documentSlots.setReservedSlots(reservedDocuments);
+	}
+
+	/*
+	* While calls of several tenants wait, each tenant gets a share of the free places proportional to its weight.
+	* The weight of a tenant is 1 by default.
+	*/
+	public void setTenantWeight(String tenant, int weight) {
+		if(weight < 1)
+			throw new IllegalArgumentException("Tenant weight must be greater than 0, actual: " + weight);
+		tenantWeights.put(tenant != null ? tenant : ConversionOptions.DefaultTenant, weight);
+	}
+
+	public int getTenantWeight(String tenant) {
+		return tenantWeights.getOrDefault(tenant != null ? tenant : ConversionOptions.DefaultTenant, 1);
+	}
+
+	public int getDocumentsInProgress() {
+		return documentsInProgress.get();
+	}
+
+	/*
+	* The workers of LOConverterPool share one registry.
+	*/
+	void setPoisonRegistry(PoisonRegistry poisonRegistry) {
+		this.poisonRegistry = poisonRegistry;
+	}
+
+	/*
+	* By default, each converter has its own registry of conversions in progress.
+	*/
+	void setInFlightConversions(InFlightConversions inFlightConversions) {
+		this.inFlightConversions = inFlightConversions;
+	}
+
+	/*
+	* After startFailureThreshold failed starts in a row (see RecoveryPolicy), calls fail immediately until
+	* circuitOpenDuration passes. Then one call tries to start the process again: if it fails, the circuit is
+	* opened again, if it succeeds, the counter is reset.
+	*/
+	private void startOfficeProcessAndConnect(ConversionJob job) {
+		synchronized(lifecycleLock) {
+			if(isConnectionAlive()) {
+				logger.debug("LibreOffice is already running and connected.");
+				return;
+			}
+
+			RecoveryPolicy policy = recoveryPolicy;
+			assertCircuitIsClosed(policy);
+			if(crashedConnectionGeneration == currentContext.getConnectionGeneration())
+				terminateOfficeProcessQuietly();
+			try {
+				logger.info("Start libreOffice process and connect...");
+				job.measure(ConversionPhase.PROCESS_START, process::start);
+				job.measure(ConversionPhase.CONNECT, () -> currentContext.connectOfficeProcess(ConnectionAttempts));
+				lastActivityNanos = System.nanoTime();
+				processStartNanos = lastActivityNanos;
+				conversionsSinceStart.set(0);
+				startFailures = 0;
+			} catch(RuntimeException e) {
+				++startFailures;
+				if(policy.isCircuitOpened(startFailures)) {
+					circuitOpenUntilNanos = System.nanoTime() + policy.getCircuitOpenDuration().toNanos();
+					logger.error("LibreOffice process with {} has failed to start {} times in a row. Calls will fail for {}.",
+							process.getAddress(), startFailures, policy.getCircuitOpenDuration());
+				}
+				if(e instanceof ProcessUnavailableException)
+					throw e;
+				throw new ProcessUnavailableException("Fail to start LibreOffice process with " + process.getAddress(), e);
+			}
 		}
 	}
 
-	public void terminateOfficeProcess() {
+	private void assertCircuitIsClosed(RecoveryPolicy policy) {
+		if(policy.isCircuitOpened(startFailures)) {
+			long remainingNanos = circuitOpenUntilNanos - System.nanoTime();
+			if(remainingNanos > 0)
+				throw new ProcessUnavailableException("LibreOffice process with " + process.getAddress() + " has failed to start "
+						+ startFailures + " times in a row. Next attempt in " + Duration.ofNanos(remainingNanos) + ".");
+		}
+	}
+
+	/*
+	* The crashed process (and its children, if they are still alive) is terminated and started again,
+	* unless another call has already done it. A replay that comes first does the same in startOfficeProcessAndConnect,
+	* a replay that comes later waits for the restart on lifecycleLock.
+	*/
+	private void restartOfficeProcessInBackground() {
+		if(!recoveryPolicy.isBackgroundRestart() || !restartScheduled.compareAndSet(false, true))
+			return;
+
 		try {
-			logger.info("Close connection and terminate libreOffice process...");
-			currentContext.closeConnection();
-		} catch (Exception e) {
-			throw new RuntimeException("Fail to close XConnection correctly.", e);
-		} finally {
-			process.terminate();
+			recoveryExecutor.execute(() -> {
+				try {
+					synchronized(lifecycleLock) {
+						if(currentContext.isConnected())
+							return;
+
+						logger.info("Restart LibreOffice process with {} after crash.", process.getAddress());
+						terminateOfficeProcessQuietly();
+						startOfficeProcessAndConnect(new ConversionJob(null, "restart"));
+					}
+				} catch(RuntimeException e) {
+					logger.warn("Fail to restart LibreOffice process with {} after crash.", process.getAddress(), e);
+				} finally {
+					restartScheduled.set(false);
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			restartScheduled.set(false);
+		}
+	}
+
+	private void terminateOfficeProcessQuietly() {
+		try {
+			terminateOfficeProcess();
+		} catch(RuntimeException e) {
+			logger.debug("Fail to close connection with crashed LibreOffice process. Reason: {}", e.getMessage());
+		}
+	}
+
+	public void terminateOfficeProcess() {
+		synchronized(lifecycleLock) {
+			try {
+				logger.info("Close connection and terminate libreOffice process...");
+				currentContext.closeConnection();
+			} catch (Exception e) {
+				throw new RuntimeException("Fail to close XConnection correctly.", e);
+			} finally {
+				process.terminate();
+				conversionsSinceStart.set(0);
+				processStartNanos = System.nanoTime();
+			}
 		}
 	}
 
 	private boolean isConnectionAlive() {
-		if(currentContext.getDispatchHelperInterface() == null)
+		if(!currentContext.isConnected())
 			return false;
 
-		try {
-			currentContext.refreshCurrentFrame();
-			currentContext.getDispatchHelperInterface().executeDispatch(
-					currentContext.getDispatchProvider(),
-					".uno:About",
-					"", 0,
-					new PropertyValue[]{}
-			);
+		long idleNanos = System.nanoTime() - lastActivityNanos;
+		if(idleNanos < livenessCheckIdlePeriod.toNanos())
 			return true;
-		} catch(Exception e) {
-			return false;
-		}
+
+		boolean alive = currentContext.ping();
+		if(alive)
+			lastActivityNanos = System.nanoTime();
+		return alive;
 	}
 
 
 	public void compare(String firstDocumentAbsolutPath, String secondDocumentAbsolutPath, String resultDocumentAbsolutPath) {
-		startOfficeProcessAndConnect();
+		compare(firstDocumentAbsolutPath, secondDocumentAbsolutPath, resultDocumentAbsolutPath, ConversionOptions.defaults());
+	}
 
-		openDocument(firstDocumentAbsolutPath);
-		compareDocument(secondDocumentAbsolutPath);
-		saveDocumentAs(resultDocumentAbsolutPath, Properties.properties("FilterName", "MS Word 2007 XML"));
-		closeDocument();
+	public void compare(String firstDocumentAbsolutPath, String secondDocumentAbsolutPath, String resultDocumentAbsolutPath, ConversionOptions options) {
+		String resultExtension = FilenameUtils.getExtension(resultDocumentAbsolutPath);
+		ConversionJob job = new ConversionJob(FilenameUtils.getExtension(firstDocumentAbsolutPath), resultExtension);
+		job.setSource(Paths.get(firstDocumentAbsolutPath));
 
-		logger.info("Task 'compareDocuments' was completed.");
+		track(job, () -> {
+			runInOffice(job, options, timeout(options, resultExtension), () -> {
+				openDocument(job, firstDocumentAbsolutPath, comparisonLoadProfile(options));
+				compareDocument(job, secondDocumentAbsolutPath);
+				saveDocumentAs(job, resultDocumentAbsolutPath, Properties.properties("FilterName", "MS Word 2007 XML"));
+				closeDocument(job);
+			});
+
+			logger.info("Task 'compareDocuments' was completed.");
+		});
 	}
 
 	public void convert(InputStream source, String targetFileAbsolutPath) {
@@ -99,102 +498,894 @@ public class LOConverter {
 	}
 
 	public void convert(InputStream source, String targetFileAbsolutPath, Map<String, String> optionalParameters) {
-		startOfficeProcessAndConnect();
+		convert(source, targetFileAbsolutPath, optionalParameters, ConversionOptions.defaults());
+	}
 
-		TimeoutTimer timer = null;
-		try {
-			timer = new TimeoutTimer(TimeUnit.MINUTES, 2, this);
-			timer.start();
+	public void convert(InputStream source, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options) {
+		convert(source, targetFileAbsolutPath, optionalParameters, options, selfDispatcher);
+	}
+
+	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath) {
+		convert(sourceFileAbsolutPath, targetFileAbsolutPath, null);
+	}
 
-			openDocument(source);
+	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters) {
+		convert(sourceFileAbsolutPath, targetFileAbsolutPath, optionalParameters, ConversionOptions.defaults());
+	}
 
-			PropertyValue[] properties = null;
-			String documentFamily = getCurrentDocumentFamily();
-			String targetExtension = FilenameUtils.getExtension(targetFileAbsolutPath);
+	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options) {
+		convert(sourceFileAbsolutPath, targetFileAbsolutPath, optionalParameters, options, selfDispatcher);
+	}
+
+	public void convert(InputStream source, OutputStream target, String targetExtension) {
+		convert(source, target, targetExtension, null);
+	}
+
+	public void convert(InputStream source, OutputStream target, String targetExtension, Map<String, String> optionalParameters) {
+		convert(source, target, targetExtension, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public void convert(InputStream source, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options) {
+		convert(source, target, targetExtension, optionalParameters, options, selfDispatcher);
+	}
+
+	public void convert(String sourceFileAbsolutPath, OutputStream target, String targetExtension) {
+		convert(sourceFileAbsolutPath, target, targetExtension, null);
+	}
+
+	public void convert(String sourceFileAbsolutPath, OutputStream target, String targetExtension, Map<String, String> optionalParameters) {
+		convert(sourceFileAbsolutPath, target, targetExtension, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public void convert(String sourceFileAbsolutPath, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options) {
+		convert(sourceFileAbsolutPath, target, targetExtension, optionalParameters, options, selfDispatcher);
+	}
 
-			if(optionalParameters != null && !optionalParameters.isEmpty())
-				properties = Properties.conversionProperties(targetExtension, optionalParameters);
-			else
-				properties = propertiesSettings.getStorePropertiesByFileFamily(documentFamily, targetExtension);
 
-			saveDocumentAs(targetFileAbsolutPath, properties);
-			closeDocument();
+	/*
+	* The steps before LibreOffice (cache lookup, waiting for an identical conversion in progress) are run
+	* by this converter, the conversion itself is run by the converter that the dispatcher chooses.
+	*/
+	void convert(InputStream source, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options, ConversionDispatcher dispatcher) {
+		String targetExtension = FilenameUtils.getExtension(targetFileAbsolutPath);
+		ConversionJob job = new ConversionJob(null, targetExtension);
+
+		track(job, () -> {
+			try(SpooledSource document = readDocument(job, source)) {
+				DocumentFamily sniffedFamily = sniffFamily(job, document);
+				ConversionCache cache = conversionCache;
+				String resultKey = null;
+				if(cache != null || singleFlightEnabled) {
+					resultKey = ConversionCache.key(document, targetExtension, keyProperties(sniffedFamily, targetExtension, optionalParameters),
+							loadProfile(job, options));
+					if(cache != null && copyFromCache(job, cache, resultKey, targetFileAbsolutPath))
+						return;
+				}
+
+				String cacheKey = resultKey;
+				convertOnce(job, resultKey, options, timeout(options, targetExtension), targetFileAbsolutPath, () -> {
+					dispatcher.dispatch(options, worker -> worker.convertDocument(job, document, sniffedFamily, targetFileAbsolutPath, optionalParameters, options));
+
+					if(cache != null)
+						cache.put(cacheKey, Paths.get(targetFileAbsolutPath));
+				});
+			}
+		});
+	}
+
+	void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options, ConversionDispatcher dispatcher) {
+		String targetExtension = FilenameUtils.getExtension(targetFileAbsolutPath);
+		ConversionJob job = new ConversionJob(FilenameUtils.getExtension(sourceFileAbsolutPath), targetExtension);
+		job.setSource(Paths.get(sourceFileAbsolutPath));
+
+		track(job, () -> {
+			PropertyValue[] properties = storeProperties(sourceFamily(job, sourceFileAbsolutPath), targetExtension, optionalParameters);
+			ConversionCache cache = conversionCache;
+			String resultKey = null;
+			if(cache != null || singleFlightEnabled) {
+				resultKey = ConversionCache.key(Paths.get(sourceFileAbsolutPath), targetExtension, properties, loadProfile(job, options));
+				if(cache != null && copyFromCache(job, cache, resultKey, targetFileAbsolutPath))
+					return;
+			}
+
+			String cacheKey = resultKey;
+			convertOnce(job, resultKey, options, timeout(options, targetExtension), targetFileAbsolutPath, () -> {
+				dispatcher.dispatch(options, worker -> worker.convertDocument(job, sourceFileAbsolutPath, targetFileAbsolutPath, properties, options));
+
+				if(cache != null)
+					cache.put(cacheKey, Paths.get(targetFileAbsolutPath));
+			});
+		});
+	}
+
+	void convert(InputStream source, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options, ConversionDispatcher dispatcher) {
+		ConversionJob job = new ConversionJob(null, targetExtension);
+
+		track(job, () -> {
+			try(SpooledSource document = readDocument(job, source)) {
+				DocumentFamily sniffedFamily = sniffFamily(job, document);
+				ConversionCache cache = conversionCache;
+				String resultKey = null;
+				if(cache != null || singleFlightEnabled) {
+					resultKey = ConversionCache.key(document, targetExtension, keyProperties(sniffedFamily, targetExtension, optionalParameters),
+							loadProfile(job, options));
+					if(cache != null && copyFromCache(job, cache, resultKey, target))
+						return;
+				}
+
+				String cacheKey = resultKey;
+				convertOnce(job, resultKey, options, timeout(options, targetExtension), target, output -> {
+					if(cache == null) {
+						dispatcher.dispatch(options, worker -> worker.convertDocument(job, document, sniffedFamily, output, targetExtension, optionalParameters, options));
+						return;
+					}
+
+					try(ConversionCache.EntryWriter cacheEntry = cache.openEntryWriter(cacheKey)) {
+						OutputStream teeOutput = new TeeOutputStream(output, cacheEntry.getOutputStream());
+						dispatcher.dispatch(options, worker -> worker.convertDocument(job, document, sniffedFamily, teeOutput, targetExtension, optionalParameters, options));
+						cacheEntry.commit();
+					}
+				});
+			}
+		});
+	}
+
+	void convert(String sourceFileAbsolutPath, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options, ConversionDispatcher dispatcher) {
+		ConversionJob job = new ConversionJob(FilenameUtils.getExtension(sourceFileAbsolutPath), targetExtension);
+		job.setSource(Paths.get(sourceFileAbsolutPath));
+
+		track(job, () -> {
+			PropertyValue[] properties = storeProperties(sourceFamily(job, sourceFileAbsolutPath), targetExtension, optionalParameters);
+			ConversionCache cache = conversionCache;
+			String resultKey = null;
+			if(cache != null || singleFlightEnabled) {
+				resultKey = ConversionCache.key(Paths.get(sourceFileAbsolutPath), targetExtension, properties, loadProfile(job, options));
+				if(cache != null && copyFromCache(job, cache, resultKey, target))
+					return;
+			}
+
+			String cacheKey = resultKey;
+			convertOnce(job, resultKey, options, timeout(options, targetExtension), target, output -> {
+				if(cache == null) {
+					dispatcher.dispatch(options, worker -> worker.convertDocument(job, sourceFileAbsolutPath, output, targetExtension, properties, options));
+					return;
+				}
+
+				try(ConversionCache.EntryWriter cacheEntry = cache.openEntryWriter(cacheKey)) {
+					OutputStream teeOutput = new TeeOutputStream(output, cacheEntry.getOutputStream());
+					dispatcher.dispatch(options, worker -> worker.convertDocument(job, sourceFileAbsolutPath, teeOutput, targetExtension, properties, options));
+					cacheEntry.commit();
+				}
+			});
+		});
+	}
+
+
+	/*
+	* The document is loaded only once and then stored to each of the targets.
+	*/
+	public void convert(InputStream source, List<ConversionTarget> targets) {
+		convert(source, targets, ConversionOptions.defaults());
+	}
+
+	public void convert(InputStream source, List<ConversionTarget> targets, ConversionOptions options) {
+		assertTargetsAreNotEmpty(targets);
+		ConversionJob job = new ConversionJob(null, targetsFormat(targets));
+
+		track(job, () -> {
+			try(SpooledSource document = readDocument(job, source)) {
+				DocumentFamily sniffedFamily = sniffFamily(job, document);
+				if(sniffedFamily != null)
+					targetsProperties(sniffedFamily, targets);
+
+				runInOffice(job, options, timeout(options, targets), () -> {
+					openDocument(job, document, loadProfile(job, options));
+					saveDocumentToTargets(job, targets, sniffedFamily);
+				});
+			}
+		});
+	}
+
+	public void convert(String sourceFileAbsolutPath, List<ConversionTarget> targets) {
+		convert(sourceFileAbsolutPath, targets, ConversionOptions.defaults());
+	}
+
+	public void convert(String sourceFileAbsolutPath, List<ConversionTarget> targets, ConversionOptions options) {
+		assertTargetsAreNotEmpty(targets);
+		ConversionJob job = new ConversionJob(FilenameUtils.getExtension(sourceFileAbsolutPath), targetsFormat(targets));
+		job.setSource(Paths.get(sourceFileAbsolutPath));
+
+		track(job, () -> {
+			DocumentFamily sniffedFamily = sniffFamily(job, sourceFileAbsolutPath);
+			if(sniffedFamily != null)
+				targetsProperties(sniffedFamily, targets);
+
+			runInOffice(job, options, timeout(options, targets), () -> {
+				openDocument(job, sourceFileAbsolutPath, loadProfile(job, options));
+				saveDocumentToTargets(job, targets, sniffedFamily);
+			});
+		});
+	}
+
+
+	/*
+	* Exports only the pages of PreviewOptions: to one PDF or to one image for each page, so the time depends
+	* on the number of requested pages and not on the size of the document. Pages beyond the end of the document
+	* are skipped. Previews are not cached.
+	*/
+	public List<byte[]> preview(InputStream source, PreviewOptions previewOptions) {
+		return preview(source, previewOptions, ConversionOptions.defaults());
+	}
+
+	public List<byte[]> preview(InputStream source, PreviewOptions previewOptions, ConversionOptions options) {
+		ConversionJob job = new ConversionJob(null, previewOptions.getFormat());
+		List<byte[]> result = new ArrayList<>();
+
+		track(job, () -> {
+			try(SpooledSource document = readDocument(job, source)) {
+				DocumentFamily sniffedFamily = sniffFamily(job, document);
+
+				runInOffice(job, options, timeout(options, previewOptions.getFormat()), () -> {
+					openDocument(job, document, loadProfile(job, options));
+					result.addAll(exportPreview(job, sniffedFamily, previewOptions));
+				});
+			}
+		});
+
+		return result;
+	}
+
+	public List<byte[]> preview(String sourceFileAbsolutPath, PreviewOptions previewOptions) {
+		return preview(sourceFileAbsolutPath, previewOptions, ConversionOptions.defaults());
+	}
+
+	public List<byte[]> preview(String sourceFileAbsolutPath, PreviewOptions previewOptions, ConversionOptions options) {
+		ConversionJob job = new ConversionJob(FilenameUtils.getExtension(sourceFileAbsolutPath), previewOptions.getFormat());
+		job.setSource(Paths.get(sourceFileAbsolutPath));
+		List<byte[]> result = new ArrayList<>();
+
+		track(job, () -> {
+			DocumentFamily sniffedFamily = sniffFamily(job, sourceFileAbsolutPath);
+
+			runInOffice(job, options, timeout(options, previewOptions.getFormat()), () -> {
+				openDocument(job, sourceFileAbsolutPath, loadProfile(job, options));
+				result.addAll(exportPreview(job, sniffedFamily, previewOptions));
+			});
+		});
+
+		return result;
+	}
+
+
+	/*
+	* The source is sniffed by the caller, sniffedFamily is null if its content was not recognized.
+	*/
+	private void convertDocument(ConversionJob job, SpooledSource source, DocumentFamily sniffedFamily, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options) {
+		String targetExtension = FilenameUtils.getExtension(targetFileAbsolutPath);
+		PropertyValue[] sniffedProperties = sniffedFamily != null ? storeProperties(sniffedFamily, targetExtension, optionalParameters) : null;
+
+		runInOffice(job, options, timeout(options, targetExtension), () -> {
+			openDocument(job, source, loadProfile(job, options));
+
+			DocumentFamily documentFamily = sniffedFamily != null ? sniffedFamily : getDocumentFamily(job);
+			PropertyValue[] properties = sniffedProperties != null ? sniffedProperties : storeProperties(documentFamily, targetExtension, optionalParameters);
+
+			saveDocumentAs(job, targetFileAbsolutPath, properties);
+			closeDocument(job);
 
 			logger.info("Conversion from document family '{}' to file with extension '{}' was completed.", documentFamily, targetExtension);
+		});
+	}
+
+	/*
+	* The store properties are determined by the caller, that has already sniffed the source file.
+	*/
+	private void convertDocument(ConversionJob job, String sourceFileAbsolutPath, String targetFileAbsolutPath, PropertyValue[] properties, ConversionOptions options) {
+		String sourceExtension = FilenameUtils.getExtension(sourceFileAbsolutPath);
+		String targetExtension = FilenameUtils.getExtension(targetFileAbsolutPath);
+
+		runInOffice(job, options, timeout(options, targetExtension), () -> {
+			openDocument(job, sourceFileAbsolutPath, loadProfile(job, options));
+			saveDocumentAs(job, targetFileAbsolutPath, properties);
+			closeDocument(job);
+
+			logger.info("Conversion from '{}' to '{}' was completed.", sourceExtension, targetExtension);
+		});
+	}
+
+	private void convertDocument(ConversionJob job, SpooledSource source, DocumentFamily sniffedFamily, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options) {
+		PropertyValue[] sniffedProperties = sniffedFamily != null ? storeProperties(sniffedFamily, targetExtension, optionalParameters) : null;
+
+		runInOffice(job, options, timeout(options, targetExtension), () -> {
+			openDocument(job, source, loadProfile(job, options));
+
+			DocumentFamily documentFamily = sniffedFamily != null ? sniffedFamily : getDocumentFamily(job);
+			PropertyValue[] properties = sniffedProperties != null ? sniffedProperties : storeProperties(documentFamily, targetExtension, optionalParameters);
+
+			saveDocumentAs(job, target, properties);
+			closeDocument(job);
+
+			logger.info("Conversion from document family '{}' to stream with extension '{}' was completed.", documentFamily, targetExtension);
+		});
+	}
+
+	private void convertDocument(ConversionJob job, String sourceFileAbsolutPath, OutputStream target, String targetExtension, PropertyValue[] properties, ConversionOptions options) {
+		String sourceExtension = FilenameUtils.getExtension(sourceFileAbsolutPath);
+
+		runInOffice(job, options, timeout(options, targetExtension), () -> {
+			openDocument(job, sourceFileAbsolutPath, loadProfile(job, options));
+			saveDocumentAs(job, target, properties);
+			closeDocument(job);
+
+			logger.info("Conversion from '{}' to stream with extension '{}' was completed.", sourceExtension, targetExtension);
+		});
+	}
+
+	private boolean copyFromCache(ConversionJob job, ConversionCache cache, String cacheKey, String targetFileAbsolutPath) {
+		if(!cache.copyTo(cacheKey, Paths.get(targetFileAbsolutPath)))
+			return false;
+
+		job.markFromCache();
+		job.addOutputBytes(fileSize(targetFileAbsolutPath));
+		logger.info("Conversion result with extension '{}' was taken from cache.", FilenameUtils.getExtension(targetFileAbsolutPath));
+		return true;
+	}
+
+	private boolean copyFromCache(ConversionJob job, ConversionCache cache, String cacheKey, OutputStream target) {
+		CountingOutputStream countingTarget = new CountingOutputStream(CloseShieldOutputStream.wrap(target));
+		if(!cache.copyTo(cacheKey, countingTarget))
+			return false;
+
+		job.markFromCache();
+		job.addOutputBytes(countingTarget.getByteCount());
+		logger.info("Conversion result was taken from cache.");
+		return true;
+	}
+
+	/*
+	* Runs the conversion only if there is no identical conversion in progress, otherwise waits for its result
+	* (see InFlightConversions) no longer than the timeout of the call. The leader copies the result for the followers
+	* only if there are any.
+	*/
+	private void convertOnce(ConversionJob job, String resultKey, ConversionOptions options, Duration timeout,
+							 String targetFileAbsolutPath, Runnable conversion) {
+		long deadlineNanos = System.nanoTime() + timeout.toNanos();
+		InFlightConversions.Flight flight = joinFlight(resultKey);
+		while(flight != null && !flight.isLeader()) {
+			try {
+				Path sharedResult = flight.awaitResult(remaining(deadlineNanos), options != null ? options.getHandle() : null);
+				if(sharedResult != null) {
+					Files.copy(sharedResult, Paths.get(targetFileAbsolutPath), StandardCopyOption.REPLACE_EXISTING);
+					takeSharedResult(job, fileSize(targetFileAbsolutPath));
+					return;
+				}
+			} catch(IOException e) {
+				throw new RuntimeException("Fail to copy result of identical conversion to '" + targetFileAbsolutPath + "'.", e);
+			} finally {
+				flight.release();
+			}
+			flight = joinFlight(resultKey);
+		}
+
+		if(flight == null) {
+			conversion.run();
+			return;
+		}
+
+		try {
+			conversion.run();
+		} catch(RuntimeException | Error e) {
+			flight.fail();
+			throw e;
+		}
+
+		if(flight.close() > 0) {
+			Path sharedResult = null;
+			try {
+				sharedResult = Files.createTempFile(SharedResultPrefix, null);
+				Files.copy(Paths.get(targetFileAbsolutPath), sharedResult, StandardCopyOption.REPLACE_EXISTING);
+				flight.complete(sharedResult);
+			} catch(IOException | RuntimeException e) {
+				logger.warn("Fail to share conversion result with identical conversions.", e);
+				deleteQuietly(sharedResult);
+				flight.fail();
+			}
+		}
+	}
+
+	/*
+	* The stream of the leader is duplicated to a temporary file, because the result can't be read back from
+	* the caller's stream.
+	*/
+	private void convertOnce(ConversionJob job, String resultKey, ConversionOptions options, Duration timeout,
+							 OutputStream target, Consumer<OutputStream> conversion) {
+		long deadlineNanos = System.nanoTime() + timeout.toNanos();
+		InFlightConversions.Flight flight = joinFlight(resultKey);
+		while(flight != null && !flight.isLeader()) {
+			try {
+				Path sharedResult = flight.awaitResult(remaining(deadlineNanos), options != null ? options.getHandle() : null);
+				if(sharedResult != null) {
+					CountingOutputStream countingTarget = new CountingOutputStream(CloseShieldOutputStream.wrap(job.watchOutput(target)));
+					Files.copy(sharedResult, countingTarget);
+					countingTarget.flush();
+					takeSharedResult(job, countingTarget.getByteCount());
+					return;
+				}
+			} catch(IOException e) {
+				throw new RuntimeException("Fail to copy result of identical conversion to stream.", e);
+			} finally {
+				flight.release();
+			}
+			flight = joinFlight(resultKey);
+		}
+
+		if(flight == null) {
+			conversion.accept(job.watchOutput(target));
+			return;
+		}
+
+		Path sharedResult = null;
+		try {
+			sharedResult = Files.createTempFile(SharedResultPrefix, null);
+			try(OutputStream sharedOutput = Files.newOutputStream(sharedResult)) {
+				conversion.accept(new TeeOutputStream(job.watchOutput(target), sharedOutput));
+			}
+		} catch(IOException e) {
+			deleteQuietly(sharedResult);
+			flight.fail();
+			throw new RuntimeException("Fail to share conversion result with identical conversions.", e);
+		} catch(RuntimeException | Error e) {
+			deleteQuietly(sharedResult);
+			flight.fail();
+			throw e;
+		}
+
+		if(flight.close() > 0) {
+			flight.complete(sharedResult);
+		} else {
+			deleteQuietly(sharedResult);
+			flight.complete(null);
+		}
+	}
+
+	private static Duration remaining(long deadlineNanos) {
+		return Duration.ofNanos(Math.max(0L, deadlineNanos - System.nanoTime()));
+	}
+
+	private InFlightConversions.Flight joinFlight(String resultKey) {
+		return resultKey != null && singleFlightEnabled ? inFlightConversions.join(resultKey) : null;
+	}
+
+	private void takeSharedResult(ConversionJob job, long outputBytes) {
+		job.markShared();
+		job.addOutputBytes(outputBytes);
+		logger.info("Conversion result with extension '{}' was taken from an identical conversion in progress.", job.getTargetFormat());
+	}
+
+	/*
+	* Reports the result of the conversion to the listeners.
+	*/
+	private void track(ConversionJob job, Runnable conversion) {
+		try {
+			conversion.run();
+		} catch(RuntimeException e) {
+			notifyListeners(job, e);
+			throw e;
+		}
+		notifyListeners(job, null);
+	}
+
+	private void notifyListeners(ConversionJob job, Throwable failure) {
+		if(listeners.isEmpty())
+			return;
+
+		ConversionEvent event = job.toEvent(failure);
+		for(ConversionListener listener : listeners) {
+			try {
+				if(failure == null)
+					listener.onConversionCompleted(event);
+				else
+					listener.onConversionFailed(event);
+			} catch(RuntimeException e) {
+				logger.warn("Conversion listener {} has failed.", listener, e);
+			}
+		}
+	}
+
+	/*
+	* Runs the part of a call that uses the LibreOffice process. If the process crashes, it is restarted in the background
+	* and the conversion is replayed according to RecoveryPolicy. A source that has crashed the process poisonThreshold
+	* times is rejected before it is loaded. A crash of the process fails all documents that it converts at the moment,
+	* so with several concurrent documents an innocent document can also be counted.
+	*/
+	private void runInOffice(ConversionJob job, ConversionOptions options, Duration timeout, Runnable conversion) {
+		RecoveryPolicy policy = recoveryPolicy;
+		assertSourceIsNotPoison(job, policy);
+		assertCallIsNotCancelled(options);
+
+		for(int attempt = 1; ; attempt++) {
+			try {
+				runInOfficeOnce(job, options, timeout, conversion);
+				return;
+			} catch(RuntimeException e) {
+				if(!isProcessCrash(e))
+					throw e;
+
+				job.setDocument(null);
+				markProcessCrashed(job);
+				restartOfficeProcessInBackground();
+				int crashes = recordCrash(job, policy);
+				if(policy.isPoison(crashes))
+					throw new PoisonDocumentException("Source document has crashed LibreOffice process " + crashes + " times.", e);
+				if(attempt > policy.getMaxReplayAttempts() || job.isOutputStarted())
+					throw e;
+
+				logger.warn("LibreOffice process with {} has crashed during conversion. Replay the conversion, attempt {}/{}.",
+						process.getAddress(), attempt, policy.getMaxReplayAttempts());
+			}
+		}
+	}
+
+	/*
+	* Waits for a free place for the document, starts the process if needed and runs the conversion with a deadline.
+	*/
+	private void runInOfficeOnce(ConversionJob job, ConversionOptions options, Duration timeout, Runnable conversion) {
+		acquireDocumentSlot(options != null ? options : ConversionOptions.defaults());
+		try {
+			assertCallIsNotCancelled(options);
+			processLock.readLock().lock();
+			documentsInProgress.incrementAndGet();
+			try {
+				startOfficeProcessAndConnect(job);
+				job.setConnectionGeneration(currentContext.getConnectionGeneration());
+				runWithDeadline(job, options != null ? options.getHandle() : null, timeout, conversion);
+			} finally {
+				closeDocumentQuietly(job);
+				documentsInProgress.decrementAndGet();
+				processLock.readLock().unlock();
+			}
 		} finally {
-			timer.cancel();
+			documentSlots.release();
 		}
+
+		recycleOfficeProcessIfNeeded();
 	}
 
-	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath) {
-		convert(sourceFileAbsolutPath, targetFileAbsolutPath, null);
+	/*
+	* A timeout, a cancellation and a failed start are not crashes: the first two close the document of the call
+	* themselves, the last is handled by the circuit breaker.
+	*/
+	private boolean isProcessCrash(RuntimeException e) {
+		if(e instanceof ConversionTimeoutException || e instanceof ConversionCancelledException || e instanceof ProcessUnavailableException)
+			return false;
+		return ExceptionUtils.indexOfType(e, DisposedException.class) >= 0 || !currentContext.isConnected();
 	}
 
-	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters) {
-		startOfficeProcessAndConnect();
+	/*
+	* The disposing event of the bridge is delivered asynchronously, so the connection can still look alive
+	* right after the crash. It is marked as lost at once, otherwise the replay would skip the liveness check
+	* and go to the crashed process again. A call that used an older connection doesn't touch the current one.
+	*/
+	private void markProcessCrashed(ConversionJob job) {
+		long generation = job.getConnectionGeneration();
+		if(generation == currentContext.getConnectionGeneration()) {
+			currentContext.markConnectionLost(generation, "conversion has failed with a crash");
+			crashedConnectionGeneration = generation;
+		}
+	}
+
+	private int recordCrash(ConversionJob job, RecoveryPolicy policy) {
+		if(!policy.isPoisonDetected())
+			return 0;
 
-		TimeoutTimer timer = null;
 		try {
-			timer = new TimeoutTimer(TimeUnit.MINUTES, 2, this);
-			timer.start();
+			String sourceKey = job.getSourceKey();
+			return sourceKey != null ? poisonRegistry.recordCrash(sourceKey, job.getSourceLength()) : 0;
+		} catch(RuntimeException e) {
+			logger.debug("Fail to record crash of LibreOffice process. Reason: {}", e.getMessage());
+			return 0;
+		}
+	}
 
-			openDocument(sourceFileAbsolutPath);
+	private void assertSourceIsNotPoison(ConversionJob job, RecoveryPolicy policy) {
+		PoisonRegistry registry = poisonRegistry;
+		if(!policy.isPoisonDetected() || !registry.mayContain(job.getSourceLength()))
+			return;
 
-			PropertyValue[] properties = null;
-			String targetExtension = FilenameUtils.getExtension(targetFileAbsolutPath);
-			String sourceExtension = FilenameUtils.getExtension(sourceFileAbsolutPath);
+		String sourceKey = job.getSourceKey();
+		int crashes = sourceKey != null ? registry.getCrashes(sourceKey) : 0;
+		if(policy.isPoison(crashes))
+			throw new PoisonDocumentException("Source document has crashed LibreOffice process " + crashes + " times and is rejected.");
+	}
 
-			if(optionalParameters != null && !optionalParameters.isEmpty())
-				properties = Properties.conversionProperties(targetExtension, optionalParameters);
-			else
-				properties = propertiesSettings.getStorePropertiesByExtensions(sourceExtension, targetExtension);
+	private void acquireDocumentSlot(ConversionOptions options) {
+		try {
+			documentSlots.acquire(options.getPriority(), options.getTenant(), options.getHandle());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a free place in LibreOffice process.", e);
+		}
+	}
 
-			saveDocumentAs(targetFileAbsolutPath, properties);
-			closeDocument();
+	/*
+	* If the deadline expires or the call is cancelled, the document of the call is closed, so the conversion fails
+	* with DisposedException or a similar error. Such an error is reported as ConversionTimeoutException or
+	* ConversionCancelledException. The deadline only hands the work over to a recovery thread, since the scheduler
+	* thread serves the deadlines of all conversions.
+	*/
+	private void runWithDeadline(ConversionJob job, ConversionHandle handle, Duration timeout, Runnable conversion) {
+		Runnable canceller = () -> abortJob(job, "LibreOffice task was cancelled.");
+		job.setInOffice(true);
+		ConversionDeadline deadline = ConversionDeadline.start(timeout,
+				() -> runInRecoveryThread(() -> abortJob(job, "Timeout " + timeout + " of LibreOffice task has expired.")));
+		if(handle != null)
+			handle.attach(canceller);
+		try {
+			conversion.run();
+			lastActivityNanos = System.nanoTime();
+		} catch(RuntimeException e) {
+			if(deadline.isExpired())
+				throw new ConversionTimeoutException("LibreOffice task was interrupted after timeout " + timeout, e);
+			if(job.isCancelled())
+				throw new ConversionCancelledException("LibreOffice task was cancelled.", e);
+			throw e;
+		} finally {
+			if(handle != null)
+				handle.detach(canceller);
+			deadline.cancel();
+			job.setInOffice(false);
+			job.cancelGracePeriod();
+			conversionsSinceStart.incrementAndGet();
+		}
+	}
 
-			logger.info("Conversion from '{}' to '{}' was completed.", sourceExtension, targetExtension);
+	/*
+	* Called after the call has released the process. The write lock waits for the documents of other calls.
+	*/
+	private void recycleOfficeProcessIfNeeded() {
+		if(recycleReason() == null)
+			return;
+
+		processLock.writeLock().lock();
+		try {
+			String reason = recycleReason();
+			if(reason != null && currentContext.isConnected()) {
+				logger.info("Recycle LibreOffice process with {} after {}.", process.getAddress(), reason);
+				try {
+					terminateOfficeProcess();
+				} catch(RuntimeException e) {
+					logger.warn("Fail to recycle LibreOffice process with {}", process.getAddress(), e);
+				}
+			}
 		} finally {
-			timer.cancel();
+			processLock.writeLock().unlock();
 		}
 	}
 
+	private String recycleReason() {
+		RecyclePolicy policy = recyclePolicy;
+		int conversions = conversionsSinceStart.get();
+
+		if(policy.isConversionsLimitReached(conversions))
+			return conversions + " conversions";
+		if(policy.isAgeLimitReached(Duration.ofNanos(System.nanoTime() - processStartNanos)))
+			return "max age " + policy.getMaxAge();
+		if(policy.isMemoryChecked()) {
+			OptionalLong residentMemory = residentMemoryBytes(policy);
+			if(residentMemory.isPresent() && policy.isMemoryLimitReached(residentMemory.getAsLong()))
+				return "resident memory " + residentMemory.getAsLong() + " bytes";
+		}
+		return null;
+	}
+
+	/*
+	* The last sample is reused within memoryCheckPeriod of RecyclePolicy. A sample belongs to the process
+	* that was running when it was taken, so a new process is never recycled by the memory of the previous one.
+	*/
+	private OptionalLong residentMemoryBytes(RecyclePolicy policy) {
+		MemorySample sample = memorySample;
+		long now = System.nanoTime();
+		if(sample != null && sample.processStartNanos == processStartNanos
+				&& now - sample.sampleNanos < policy.getMemoryCheckPeriod().toNanos())
+			return sample.residentMemory;
+
+		OptionalLong residentMemory = process.getResidentMemoryBytes();
+		memorySample = new MemorySample(processStartNanos, now, residentMemory);
+		return residentMemory;
+	}
+
+	/*
+	* The cheap path: the document of the job is closed by another thread, because a remote call can wait for
+	* the conversion in progress. If the job still uses the process after the grace period, the process is terminated.
+	*/
+	private void abortJob(ConversionJob job, String reason) {
+		if(!job.cancel())
+			return;
+
+		Duration gracePeriod = cancellationGracePeriod;
+		logger.warn("{} Close the document of the task, terminate LibreOffice process if it doesn't stop in {}.", reason, gracePeriod);
+		job.startGracePeriod(ConversionDeadline.start(gracePeriod,
+				() -> runInRecoveryThread(() -> terminateOfficeProcessAfterGracePeriod(job))));
+		if(!gracePeriod.isZero())
+			runInRecoveryThread(() -> closeAbortedDocument(job));
+	}
+
+	private void runInRecoveryThread(Runnable task) {
+		try {
+			recoveryExecutor.execute(task);
+		} catch(RejectedExecutionException e) {
+			logger.debug("Fail to handle the aborted LibreOffice task. Reason: {}", e.getMessage());
+		}
+	}
+
+	/*
+	* If the document is still being loaded, it's closed by the job itself as soon as it's loaded (see assertJobIsNotCancelled()).
+	*/
+	private void closeAbortedDocument(ConversionJob job) {
+		XComponent document = job.getDocument();
+		if(document == null || !job.isInOffice())
+			return;
 
-	private void openDocument(String sourceFileAbsolutPath) {
 		try {
-			HashMap<String, Object> defaultProperties = new HashMap<>();
-			defaultProperties.put("UpdateDocMode", 0);
-			defaultProperties.put("Hidden", true);
+			XCloseable closeable = UnoRuntime.queryInterface(XCloseable.class, document);
+			if(closeable != null)
+				closeable.close(true);
+			else
+				document.dispose();
+		} catch(CloseVetoException e) {
+			document.dispose();
+		} catch(Exception e) {
+			logger.debug("Fail to close document of the aborted LibreOffice task. Reason: {}", e.getMessage());
+		}
+	}
+
+	private void terminateOfficeProcessAfterGracePeriod(ConversionJob job) {
+		if(!job.isInOffice())
+			return;
 
+		logger.warn("Aborted LibreOffice task hasn't stopped in the grace period. Terminate LibreOffice process.");
+		terminateOfficeProcess();
+	}
+
+	private void assertCallIsNotCancelled(ConversionOptions options) {
+		if(options != null && options.getHandle() != null && options.getHandle().isCancelled())
+			throw new ConversionCancelledException("LibreOffice task was cancelled.");
+	}
+
+	/*
+	* Checked between the steps of the conversion, so an aborted job doesn't start the next step.
+	*/
+	private void assertJobIsNotCancelled(ConversionJob job) {
+		if(job.isCancelled())
+			throw new ConversionCancelledException("LibreOffice task was cancelled.");
+	}
+
+	private Duration timeout(ConversionOptions options, String targetExtension) {
+		if(options != null && options.getTimeout() != null)
+			return options.getTimeout();
+		return defaultTimeouts.getOrDefault(targetExtension.toLowerCase(Locale.ROOT), defaultTimeout);
+	}
+
+	private Duration timeout(ConversionOptions options, List<ConversionTarget> targets) {
+		if(options != null && options.getTimeout() != null)
+			return options.getTimeout();
+
+		Duration timeout = Duration.ZERO;
+		for(ConversionTarget target : targets)
+			timeout = timeout.plus(timeout(null, target.getTargetExtension()));
+		return timeout.isZero() ? defaultTimeout : timeout;
+	}
+
+
+	private void openDocument(ConversionJob job, String sourceFileAbsolutPath, LoadProfile loadProfile) {
+		job.setInputBytesIfUnknown(fileSize(sourceFileAbsolutPath));
+		long start = System.nanoTime();
+		try {
 			XComponentLoader componentLoader = currentContext.getCompLoader();
-			XComponent component = componentLoader.loadComponentFromURL(filePathToUri(sourceFileAbsolutPath), "_blank", 0, Properties.properties(defaultProperties));
+			XComponent component = componentLoader.loadComponentFromURL(filePathToUri(sourceFileAbsolutPath), "_blank", 0, Properties.properties(loadProfile.getProperties()));
+			job.recordPhase(ConversionPhase.OPEN_DOCUMENT, System.nanoTime() - start);
+			if(component == null)
+				throw new RuntimeException("LibreOffice can't load document: " + sourceFileAbsolutPath);
 
-			currentContext.setCurrentDocument(component);
-			currentContext.refreshCurrentFrame();
+			job.setDocument(component);
 		} catch(DisposedException e) {
 			logger.error("Connection with LibreOffice process was abrupted. Fail to open document.", e);
 			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException("Fail to open document with LibreOffice.", e);
 		}
+		assertJobIsNotCancelled(job);
 	}
 
-	private void openDocument(InputStream documentSource) {
-		Path tmpFile = inputStreamToTempFile(documentSource);
-		openDocument(tmpFile.toAbsolutePath().toString());
+	/*
+	* A document spilled by SourceSpooler is loaded from its file. A document from the heap is loaded from a stream
+	* and, if LibreOffice can't do it, from a temporary copy.
+	*/
+	private void openDocument(ConversionJob job, SpooledSource document, LoadProfile loadProfile) {
+		if(!document.isInMemory()) {
+			openDocument(job, document.getFile().toString(), loadProfile);
+			return;
+		}
+
+		if(streamLoadingEnabled && openDocumentFromStream(job, document.getBytes(), loadProfile)) {
+			assertJobIsNotCancelled(job);
+			return;
+		}
+
+		Path tmpFile = job.measure(ConversionPhase.SPOOL_SOURCE, document::toTempFile);
 		try {
-			Files.deleteIfExists(tmpFile);
-		} catch(IOException e) {
-			logger.warn("Fail to delete temporary file with document source.", e);
+			openDocument(job, tmpFile.toAbsolutePath().toString(), loadProfile);
+		} finally {
+			try {
+				Files.deleteIfExists(tmpFile);
+			} catch(IOException e) {
+				logger.warn("Fail to delete temporary file with document source.", e);
+			}
 		}
 	}
 
-	private void closeDocument() {
-		XCloseable closeable = UnoRuntime.queryInterface(XCloseable.class, currentContext.getCurrentDocument());
+	private boolean openDocumentFromStream(ConversionJob job, byte[] document, LoadProfile loadProfile) {
+		long start = System.nanoTime();
+		try {
+			Map<String, Object> loadProperties = new HashMap<>(loadProfile.getProperties());
+			loadProperties.put("InputStream", new ByteArrayToXInputStreamAdapter(document));
+
+			XComponentLoader componentLoader = currentContext.getCompLoader();
+			XComponent component = componentLoader.loadComponentFromURL("private:stream", "_blank", 0, Properties.properties(loadProperties));
+			job.recordPhase(ConversionPhase.OPEN_DOCUMENT, System.nanoTime() - start);
+			if(component == null) {
+				logger.debug("LibreOffice can't load document from stream. Document will be loaded from temporary file.");
+				return false;
+			}
+
+			job.setDocument(component);
+			return true;
+		} catch(DisposedException e) {
+			logger.error("Connection with LibreOffice process was abrupted. Fail to open document.", e);
+			throw e;
+		} catch (Exception e) {
+			logger.debug("LibreOffice can't load document from stream. Document will be loaded from temporary file. Reason: {}", e.getMessage());
+			return false;
+		}
+	}
+
+	/*
+	* The profile from ConversionOptions or, if it isn't set, the profile of the source format: recognized
+	* by the content or, if the content was not recognized, by the extension.
+	*/
+	private LoadProfile loadProfile(ConversionJob job, ConversionOptions options) {
+		if(options != null && options.getLoadProfile() != null)
+			return options.getLoadProfile();
+
+		DocumentFormat sourceFormat = job.getSniffedFormat() != null ?
+				job.getSniffedFormat() :
+				propertiesSettings.getFormatByExtension(job.getSourceFormat()).orElse(null);
+		return sourceFormat != null ? sourceFormat.getLoadProfile() : LoadProfile.standard();
+	}
+
+	/*
+	* The compared document is modified by LibreOffice, so it can't be loaded read-only.
+	*/
+	private LoadProfile comparisonLoadProfile(ConversionOptions options) {
+		if(options != null && options.getLoadProfile() != null)
+			return options.getLoadProfile();
+		return LoadProfile.standard();
+	}
+
+	private void closeDocument(ConversionJob job) {
+		XComponent document = job.getDocument();
+		if(document == null)
+			return;
+
+		XCloseable closeable = UnoRuntime.queryInterface(XCloseable.class, document);
+		long start = System.nanoTime();
 		try {
 			if (closeable != null)
 				closeable.close(true);
 			else
-				currentContext.getCurrentDocument().dispose();
+				document.dispose();
+			job.setDocument(null);
+			job.recordPhase(ConversionPhase.CLOSE_DOCUMENT, System.nanoTime() - start);
 		} catch(DisposedException e) {
 			logger.error("Connection with LibreOffice process was abrupted. Fail to close document.", e);
 			throw e;
@@ -203,9 +1394,25 @@ public class LOConverter {
 		}
 	}
 
-	private void compareDocument(String comparedFileAbsolutPath) {
+	/*
+	* Closes the document that was left open by a failed call, so it doesn't stay in the shared LibreOffice process.
+	*/
+	private void closeDocumentQuietly(ConversionJob job) {
+		if(job.getDocument() == null || !currentContext.isConnected())
+			return;
+
 		try {
-			XFrame frame = UnoRuntime.queryInterface(XTextDocument.class, currentContext.getCurrentDocument()).getCurrentController().getFrame();
+			closeDocument(job);
+		} catch(RuntimeException e) {
+			logger.debug("Fail to close document after failed LibreOffice task. Reason: {}", e.getMessage());
+		}
+	}
+
+	private void compareDocument(ConversionJob job, String comparedFileAbsolutPath) {
+		assertJobIsNotCancelled(job);
+		long start = System.nanoTime();
+		try {
+			XFrame frame = UnoRuntime.queryInterface(XTextDocument.class, job.getDocument()).getCurrentController().getFrame();
 			XDispatchProvider dispatchProvider = UnoRuntime.queryInterface(XDispatchProvider.class, frame);
 
 			currentContext.getDispatchHelperInterface().executeDispatch(
@@ -215,6 +1422,7 @@ public class LOConverter {
 					0,
 					Properties.properties("URL", filePathToUri(comparedFileAbsolutPath))
 			);
+			job.recordPhase(ConversionPhase.COMPARE_DOCUMENT, System.nanoTime() - start);
 		} catch(DisposedException e) {
 			logger.error("Connection with LibreOffice process was abrupted. Fail to compare document.", e);
 			throw e;
@@ -223,10 +1431,14 @@ public class LOConverter {
 		}
 	}
 
-	private void saveDocumentAs(String newFileAbsolutPath, PropertyValue[] properties) {
-		XStorable storable = UnoRuntime.queryInterface(XStorable.class, currentContext.getCurrentDocument());
+	private void saveDocumentAs(ConversionJob job, String newFileAbsolutPath, PropertyValue[] properties) {
+		assertJobIsNotCancelled(job);
+		XStorable storable = UnoRuntime.queryInterface(XStorable.class, job.getDocument());
+		long start = System.nanoTime();
 		try {
 			storable.storeToURL(filePathToUri(newFileAbsolutPath), properties);
+			job.recordPhase(ConversionPhase.SAVE_DOCUMENT, System.nanoTime() - start);
+			job.addOutputBytes(fileSize(newFileAbsolutPath));
 		} catch(DisposedException e) {
 			logger.error("Connection with LibreOffice process was abrupted. Fail to save document as {}", newFileAbsolutPath, e);
 			throw e;
@@ -235,71 +1447,375 @@ public class LOConverter {
 		}
 	}
 
-	private String getCurrentDocumentFamily() {
-		XServiceInfo serviceInfo = UnoRuntime.queryInterface(XServiceInfo.class, currentContext.getCurrentDocument());
+	/*
+	* LibreOffice writes the document into the stream as it is produced and closes the stream at the end.
+	* The target stream belongs to the caller, so it is protected from closing and only flushed.
+	*/
+	private void saveDocumentAs(ConversionJob job, OutputStream target, PropertyValue[] properties) {
+		assertJobIsNotCancelled(job);
+		XStorable storable = UnoRuntime.queryInterface(XStorable.class, job.getDocument());
+		long start = System.nanoTime();
+		try {
+			CountingOutputStream closeShieldTarget = new CountingOutputStream(CloseShieldOutputStream.wrap(target));
+			PropertyValue[] streamProperties = ArrayUtils.add(properties,
+					Properties.property("OutputStream", new OutputStreamToXOutputStreamAdapter(closeShieldTarget)));
+			storable.storeToURL("private:stream", streamProperties);
+			target.flush();
+			job.recordPhase(ConversionPhase.SAVE_DOCUMENT, System.nanoTime() - start);
+			job.addOutputBytes(closeShieldTarget.getByteCount());
+		} catch(DisposedException e) {
+			logger.error("Connection with LibreOffice process was abrupted. Fail to save document to stream.", e);
+			throw e;
+		} catch(Exception e) {
+			throw new RuntimeException("Fail to save document to stream.", e);
+		}
+	}
+
+	private void saveDocumentToTargets(ConversionJob job, List<ConversionTarget> targets, DocumentFamily sourceFamily) {
+		assertJobIsNotCancelled(job);
+		try {
+			DocumentFamily documentFamily = sourceFamily != null ? sourceFamily : getDocumentFamily(job);
+			List<PropertyValue[]> targetsProperties = targetsProperties(documentFamily, targets);
+			for(int i = 0; i < targets.size(); i++) {
+				ConversionTarget target = targets.get(i);
+				if(target.isFile())
+					saveDocumentAs(job, target.getTargetFileAbsolutPath(), targetsProperties.get(i));
+				else
+					saveDocumentAs(job, job.watchOutput(target.getOutputStream()), targetsProperties.get(i));
+
+				logger.info("Conversion from document family '{}' to {} was completed.", documentFamily, target);
+			}
+		} finally {
+			closeDocument(job);
+		}
+	}
+
+	private List<byte[]> exportPreview(ConversionJob job, DocumentFamily sourceFamily, PreviewOptions previewOptions) {
+		assertJobIsNotCancelled(job);
+		try {
+			DocumentFamily documentFamily = sourceFamily != null ? sourceFamily : getDocumentFamily(job);
+			List<byte[]> pages;
+			if(!previewOptions.isImage())
+				pages = List.of(saveDocumentToBytes(job, withFilterData(
+						propertiesSettings.getStorePropertiesByFileFamily(documentFamily, previewOptions.getFormat()),
+						Map.of("PageRange", previewOptions.getPageRange()))));
+			else if(documentFamily == DocumentFamily.DRAWING || documentFamily == DocumentFamily.PRESENTATION)
+				pages = exportDrawPages(job, previewOptions);
+			else
+				pages = exportPagesWithFilter(job, documentFamily, previewOptions);
+
+			logger.info("Preview of document family '{}' with {} was completed.", documentFamily, previewOptions);
+			return pages;
+		} finally {
+			closeDocument(job);
+		}
+	}
+
+	/*
+	* Each page (slide) of Draw and Impress documents is exported separately by GraphicExportFilter.
+	*/
+	private List<byte[]> exportDrawPages(ConversionJob job, PreviewOptions previewOptions) {
+		long start = System.nanoTime();
+		try {
+			XDrawPages drawPages = UnoRuntime.queryInterface(XDrawPagesSupplier.class, job.getDocument()).getDrawPages();
+			Object graphicExportFilter = currentContext.createService("com.sun.star.drawing.GraphicExportFilter");
+			XExporter exporter = UnoRuntime.queryInterface(XExporter.class, graphicExportFilter);
+			XFilter filter = UnoRuntime.queryInterface(XFilter.class, graphicExportFilter);
+
+			List<byte[]> result = new ArrayList<>();
+			int lastPage = Math.min(previewOptions.getLastPage(), drawPages.getCount());
+			for(int page = previewOptions.getFirstPage(); page <= lastPage; page++) {
+				XComponent drawPage = UnoRuntime.queryInterface(XComponent.class, drawPages.getByIndex(page - 1));
+				XPropertySet pageProperties = UnoRuntime.queryInterface(XPropertySet.class, drawPage);
+				Map<String, Object> filterData = new HashMap<>();
+				filterData.put("PixelWidth", toPixels(AnyConverter.toInt(pageProperties.getPropertyValue("Width")), previewOptions.getResolution()));
+				filterData.put("PixelHeight", toPixels(AnyConverter.toInt(pageProperties.getPropertyValue("Height")), previewOptions.getResolution()));
+
+				ByteArrayOutputStream image = new ByteArrayOutputStream();
+				exporter.setSourceDocument(drawPage);
+				filter.filter(new PropertyValue[] {
+						Properties.property("MediaType", previewOptions.getMediaType()),
+						Properties.property("OutputStream", new OutputStreamToXOutputStreamAdapter(image)),
+						Properties.property("FilterData", Properties.properties(filterData))
+				});
+				result.add(image.toByteArray());
+				job.addOutputBytes(image.size());
+			}
+
+			job.recordPhase(ConversionPhase.SAVE_DOCUMENT, System.nanoTime() - start);
+			return result;
+		} catch(DisposedException e) {
+			logger.error("Connection with LibreOffice process was abrupted. Fail to export pages of document.", e);
+			throw e;
+		} catch(Exception e) {
+			throw new RuntimeException("Fail to export pages of document to " + previewOptions.getFormat(), e);
+		}
+	}
+
+	/*
+	* Image export filters of Writer and Calc store one page, the page is chosen by PageRange
+	* (supported since LibreOffice 7.4, older versions always store the first page).
+	* The number of pages is known only for text documents, for other documents an empty result
+	* means that the page is beyond the end of the document. For all documents, an image of another page equal
+	* to the image of page 1 means that PageRange is ignored: the pages exported so far are returned or,
+	* if the first page was not requested, the export fails. For this check page 1 is exported first.
+	* (A document whose pages look exactly like its first page is also cut, this is the price of the check.)
+	*/
+	private List<byte[]> exportPagesWithFilter(ConversionJob job, DocumentFamily documentFamily, PreviewOptions previewOptions) {
+		PropertyValue[] properties = propertiesSettings.getStorePropertiesByFileFamily(documentFamily, previewOptions.getFormat());
+		Map<String, Object> filterData = new HashMap<>();
+		pageSize(job, documentFamily).ifPresent(pageSize -> {
+			filterData.put("PixelWidth", toPixels(pageSize.Width, previewOptions.getResolution()));
+			filterData.put("PixelHeight", toPixels(pageSize.Height, previewOptions.getResolution()));
+		});
+
+		List<byte[]> result = new ArrayList<>();
+		int pageCount = pageCount(job);
+		int lastPage = pageCount >= 0 ? Math.min(previewOptions.getLastPage(), pageCount) : previewOptions.getLastPage();
+		byte[] firstPage = previewOptions.getFirstPage() > 1 && lastPage >= previewOptions.getFirstPage() ?
+				exportPage(job, properties, filterData, 1) : null;
+		for(int page = previewOptions.getFirstPage(); page <= lastPage; page++) {
+			byte[] image = exportPage(job, properties, filterData, page);
+			if(image.length == 0)
+				break;
+			if(page == 1)
+				firstPage = image;
+			else if(firstPage != null && Arrays.equals(firstPage, image)) {
+				if(result.isEmpty())
+					throw new RuntimeException("Fail to export page " + page + " of document to " + previewOptions.getFormat() +
+							". LibreOffice ignores PageRange of image export filters (supported since LibreOffice 7.4).");
+				logger.warn("LibreOffice ignores PageRange of image export filters (supported since LibreOffice 7.4). " +
+						"Only pages {}-{} were exported.", previewOptions.getFirstPage(), page - 1);
+				break;
+			}
+			result.add(image);
+		}
+		return result;
+	}
+
+	private byte[] exportPage(ConversionJob job, PropertyValue[] properties, Map<String, Object> filterData, int page) {
+		filterData.put("PageRange", Integer.toString(page));
+		return saveDocumentToBytes(job, withFilterData(properties, filterData));
+	}
+
+	private byte[] saveDocumentToBytes(ConversionJob job, PropertyValue[] properties) {
+		ByteArrayOutputStream result = new ByteArrayOutputStream();
+		saveDocumentAs(job, result, properties);
+		return result.toByteArray();
+	}
+
+	/*
+	* Size of the default page style in 1/100 mm. Empty if the document has no such style.
+	*/
+	private Optional<Size> pageSize(ConversionJob job, DocumentFamily documentFamily) {
+		try {
+			XStyleFamiliesSupplier styleFamiliesSupplier = UnoRuntime.queryInterface(XStyleFamiliesSupplier.class, job.getDocument());
+			XNameAccess pageStyles = UnoRuntime.queryInterface(XNameAccess.class, styleFamiliesSupplier.getStyleFamilies().getByName("PageStyles"));
+			String defaultStyle = documentFamily == DocumentFamily.SPREADSHEET ? "Default" : "Standard";
+			XPropertySet style = UnoRuntime.queryInterface(XPropertySet.class, pageStyles.getByName(defaultStyle));
+			return Optional.of(new Size(
+					AnyConverter.toInt(style.getPropertyValue("Width")),
+					AnyConverter.toInt(style.getPropertyValue("Height"))
+			));
+		} catch(DisposedException e) {
+			throw e;
+		} catch(Exception e) {
+			logger.debug("Fail to get page size of document. Images will have default size. Reason: {}", e.getMessage());
+			return Optional.empty();
+		}
+	}
+
+	/*
+	* -1 if the document doesn't report the number of pages.
+	*/
+	private int pageCount(ConversionJob job) {
+		try {
+			XModel model = UnoRuntime.queryInterface(XModel.class, job.getDocument());
+			XPropertySet controller = UnoRuntime.queryInterface(XPropertySet.class, model.getCurrentController());
+			return AnyConverter.toInt(controller.getPropertyValue("PageCount"));
+		} catch(DisposedException e) {
+			throw e;
+		} catch(Exception e) {
+			return -1;
+		}
+	}
+
+	private static int toPixels(int sizeInHundredthsOfMillimeter, int resolution) {
+		return Math.max(1, (int) Math.round(sizeInHundredthsOfMillimeter / 2540.0 * resolution));
+	}
+
+	/*
+	* Adds options to FilterData of the store properties, keeping the options that are already there.
+	*/
+	private static PropertyValue[] withFilterData(PropertyValue[] properties, Map<String, Object> filterData) {
+		Map<String, Object> mergedFilterData = new LinkedHashMap<>();
+		List<PropertyValue> result = new ArrayList<>();
+		for(PropertyValue property : properties) {
+			if(property.Name.equals("FilterData") && property.Value instanceof PropertyValue[] existingFilterData) {
+				for(PropertyValue option : existingFilterData)
+					mergedFilterData.put(option.Name, option.Value);
+			} else {
+				result.add(property);
+			}
+		}
+		mergedFilterData.putAll(filterData);
+		result.add(Properties.property("FilterData", Properties.properties(mergedFilterData)));
+		return result.toArray(new PropertyValue[0]);
+	}
+
+	private List<PropertyValue[]> targetsProperties(DocumentFamily documentFamily, List<ConversionTarget> targets) {
+		List<PropertyValue[]> result = new ArrayList<>();
+		for(ConversionTarget target : targets) {
+			if(target.hasOptionalParameters())
+				result.add(Properties.conversionProperties(target.getTargetExtension(), target.getOptionalParameters()));
+			else
+				result.add(propertiesSettings.getStorePropertiesByFileFamily(documentFamily, target.getTargetExtension()));
+		}
+		return result;
+	}
+
+	/*
+	* Store properties of a document from InputStream for the cache key. If the content was not recognized,
+	* the family is known only after loading, then it depends only on the content and the properties
+	* of the family are not part of the key.
+	*/
+	private PropertyValue[] keyProperties(DocumentFamily sniffedFamily, String targetExtension, Map<String, String> optionalParameters) {
+		if(sniffedFamily != null || (optionalParameters != null && !optionalParameters.isEmpty()))
+			return storeProperties(sniffedFamily, targetExtension, optionalParameters);
+		return null;
+	}
+
+	private PropertyValue[] storeProperties(DocumentFamily sourceFamily, String targetExtension, Map<String, String> optionalParameters) {
+		if(optionalParameters != null && !optionalParameters.isEmpty())
+			return Properties.conversionProperties(targetExtension, optionalParameters);
+		return propertiesSettings.getStorePropertiesByFileFamily(sourceFamily, targetExtension);
+	}
+
+	/*
+	* Family of the source file by its content or, if the content is not recognized, by its extension.
+	*/
+	private DocumentFamily sourceFamily(ConversionJob job, String sourceFileAbsolutPath) {
+		DocumentFamily sniffedFamily = sniffFamily(job, sourceFileAbsolutPath);
+		if(sniffedFamily != null)
+			return sniffedFamily;
+
+		return propertiesSettings.getFormatByExtension(FilenameUtils.getExtension(sourceFileAbsolutPath))
+				.map(DocumentFormat::getInputFamily)
+				.orElse(null);
+	}
+
+	/*
+	* Family of the document by the signature of its first bytes. Allows to choose store properties and reject
+	* unsupported conversions before the document is loaded by LibreOffice. Null if the content is not recognized.
+	*/
+	private DocumentFamily sniffFamily(ConversionJob job, SpooledSource document) {
+		if(!formatSniffingEnabled)
+			return null;
+		return sniffedFamily(job, job.measure(ConversionPhase.DETECT_FAMILY, () -> document.isInMemory() ?
+				DocumentSniffer.sniffMediaType(document.getBytes()) :
+				DocumentSniffer.sniffMediaType(document.getFile())));
+	}
+
+	private DocumentFamily sniffFamily(ConversionJob job, String sourceFileAbsolutPath) {
+		if(!formatSniffingEnabled)
+			return null;
+		return sniffedFamily(job, job.measure(ConversionPhase.DETECT_FAMILY, () -> DocumentSniffer.sniffMediaType(Paths.get(sourceFileAbsolutPath))));
+	}
+
+	private DocumentFamily sniffedFamily(ConversionJob job, Optional<String> mediaType) {
+		Optional<DocumentFormat> format = mediaType.flatMap(propertiesSettings::getFormatByMediaType);
+		format.ifPresent(documentFormat -> {
+			job.setSniffedFormat(documentFormat);
+			job.setSourceFormatIfUnknown(documentFormat.getExtensions().get(0));
+			logger.debug("Source document was recognized as '{}'.", documentFormat.getName());
+		});
+		return format.map(DocumentFormat::getInputFamily).orElse(null);
+	}
+
+	private DocumentFamily getDocumentFamily(ConversionJob job) {
+		return job.measure(ConversionPhase.DETECT_FAMILY, () -> detectDocumentFamily(job.getDocument()));
+	}
+
+	private DocumentFamily detectDocumentFamily(XComponent document) {
+		XServiceInfo serviceInfo = UnoRuntime.queryInterface(XServiceInfo.class, document);
 		if (serviceInfo.supportsService("com.sun.star.text.WebDocument")) {
-			return "WEB";
+			return DocumentFamily.WEB;
 		} else if (serviceInfo.supportsService("com.sun.star.text.GenericTextDocument")) {
-			return "TEXT";
+			return DocumentFamily.TEXT;
 		} else if (serviceInfo.supportsService("com.sun.star.sheet.SpreadsheetDocument")) {
-			return "SPREADSHEET";
+			return DocumentFamily.SPREADSHEET;
 		} else if (serviceInfo.supportsService("com.sun.star.presentation.PresentationDocument")) {
-			return "PRESENTATION";
+			return DocumentFamily.PRESENTATION;
 		} else {
-			return serviceInfo.supportsService("com.sun.star.drawing.DrawingDocument") ? "DRAWING" : null;
+			return serviceInfo.supportsService("com.sun.star.drawing.DrawingDocument") ? DocumentFamily.DRAWING : null;
 		}
 	}
 
 
+	private static void assertTargetsAreNotEmpty(List<ConversionTarget> targets) {
+		if(targets == null || targets.isEmpty())
+			throw new IllegalArgumentException("Targets must not be null or empty, actual: " + targets);
+		for(ConversionTarget target : targets)
+			if(target == null)
+				throw new IllegalArgumentException("Targets must not contain null, actual: " + targets);
+	}
+
+	private static void assertTimeoutIsPositive(Duration timeout) {
+		if(timeout == null || timeout.isZero() || timeout.isNegative())
+			throw new IllegalArgumentException("Timeout must be positive, actual: " + timeout);
+	}
+
 	private String filePathToUri(String filePath) {
 		return Paths.get(filePath).toUri().toString();
 	}
 
-	private Path inputStreamToTempFile(InputStream in) {
+	private SpooledSource readDocument(ConversionJob job, InputStream in) {
+		SpooledSource document = job.measure(ConversionPhase.SPOOL_SOURCE, () -> sourceSpooler.spool(in));
+		if(document.isInMemory())
+			job.setSource(document.getBytes());
+		else
+			job.setSource(document.getFile());
+		job.setInputBytesIfUnknown(document.getLength());
+		return document;
+	}
+
+	private long fileSize(String fileAbsolutPath) {
 		try {
-			Path tempFile = Files.createTempFile("loConverter-", "-document-from-InputStream");
-			Files.copy(in, tempFile, StandardCopyOption.REPLACE_EXISTING);
-			return tempFile;
+			return Files.size(Paths.get(fileAbsolutPath));
 		} catch(IOException e) {
-			throw new RuntimeException("Fail copy InputStream to temp file while convert document with LibreOffice.", e);
-		} finally {
-			IOUtils.closeQuietly(in);
+			return -1L;
 		}
 	}
 
+	private static void deleteQuietly(Path file) {
+		if(file == null)
+			return;
+		try {
+			Files.deleteIfExists(file);
+		} catch(IOException e) {
+			logger.warn("Fail to delete temporary file {}", file, e);
+		}
+	}
 
-	private static class TimeoutTimer implements Runnable {
-
-		private final LOConverter LOConverter;
-		private final TimeUnit timeUnit;
-		private final long duration;
-		private Thread thread;
+	private String targetsFormat(List<ConversionTarget> targets) {
+		StringJoiner joiner = new StringJoiner("+");
+		for(ConversionTarget target : targets)
+			joiner.add(target.getTargetExtension());
+		return joiner.toString();
+	}
 
-		public TimeoutTimer(TimeUnit timeUnit, long duration, LOConverter LOConverter) {
-			this.timeUnit = timeUnit;
-			this.duration = duration;
-			this.LOConverter = LOConverter;
-		}
 
-		@Override
-		public void run() {
-			try {
-				logger.debug("LibreOffice task interrupt timer has been started.");
-				timeUnit.sleep(duration);
-				logger.debug("Interrupt current LibreOffice task.");
-				LOConverter.terminateOfficeProcess();
-			} catch(InterruptedException e) {
-				logger.debug("LibreOffice task interrupt timer has been canceled.");
-			}
-		}
+	private static final class MemorySample {
 
-		public void start() {
-			thread = new Thread(this);
-			thread.start();
-		}
+		private final long processStartNanos;
+		private final long sampleNanos;
+		private final OptionalLong residentMemory;
 
-		public void cancel() {
-			thread.interrupt();
+		private MemorySample(long processStartNanos, long sampleNanos, OptionalLong residentMemory) {
+			this.processStartNanos = processStartNanos;
+			this.sampleNanos = sampleNanos;
+			this.residentMemory = residentMemory;
 		}
 	}
+
 }
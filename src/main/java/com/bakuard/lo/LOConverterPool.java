@@ -0,0 +1,691 @@
+package com.bakuard.lo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/*
+* Each worker is a separate LOConverter with its own LibreOffice process listening on its own address:
+* a port (firstPortNumber, firstPortNumber + 1, ...) or a named pipe (see LOAddress). Each worker has
+* maxConcurrentDocumentsPerProcess slots (one by default). A call is sent to the least busy worker with a free slot,
+* if all slots are busy the calling thread waits in the queue until one of them is released.
+*
+* Waiting calls get free slots by the priority class and the tenant from their ConversionOptions: a call of a higher
+* class is always served first, calls of one class are served by weighted fair queuing across tenants, so a tenant
+* with a large batch doesn't hold up the others. Some slots can be reserved for HIGH priority calls.
+*
+* Asynchronous calls (convertAsync/compareAsync) are executed by the pool's own threads in the same order. The number of
+* asynchronous tasks that are waiting or being executed is limited by the number of slots + maxQueueDepth. When the
+* limit is reached, a new task waits for a free place no longer than queueWaitTimeout (zero by default)
+* and then is rejected with ConverterOverloadedException.
+*/
+public class LOConverterPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(LOConverterPool.class.getName());
+
+	private static final int DefaultQueueDepthPerWorker = 16;
+
+	private final List<LOConverter> workers;
+	private final Map<String, Integer> tenantWeights = new ConcurrentHashMap<>();
+	private final FairShareScheduler freeSlots;
+	private final Map<LOConverter, Integer> busySlots = new HashMap<>();
+	private int slotsPerWorker = 1;
+
+	private final ThreadPoolExecutor asyncExecutor;
+	private final ResizableSemaphore asyncTaskPermits;
+	private final FairQueue<Runnable> pendingAsyncTasks = new FairQueue<>(this::getTenantWeight);
+	private final int maxQueueDepth;
+	private volatile Duration queueWaitTimeout = Duration.ZERO;
+
+	public LOConverterPool(int firstPortNumber, String officeHome) {
+		this(firstPortNumber, Runtime.getRuntime().availableProcessors(), officeHome);
+	}
+
+	public LOConverterPool(int firstPortNumber, int poolSize, String officeHome) {
+		this(firstPortNumber, poolSize, poolSize * DefaultQueueDepthPerWorker, officeHome);
+	}
+
+	public LOConverterPool(int firstPortNumber, int poolSize, int maxQueueDepth, String officeHome) {
+		this(LOAddress.sockets(firstPortNumber, poolSize), maxQueueDepth, officeHome);
+	}
+
+	public LOConverterPool(List<LOAddress> addresses, String officeHome) {
+		this(addresses, addresses.size() * DefaultQueueDepthPerWorker, officeHome);
+	}
+
+	public LOConverterPool(List<LOAddress> addresses, int maxQueueDepth, String officeHome) {
+		int poolSize = addresses.size();
+		if(poolSize < 1)
+			throw new IllegalArgumentException("Pool size must be greater than 0, actual: " + poolSize);
+		if(maxQueueDepth < 0)
+			throw new IllegalArgumentException("Max queue depth must not be negative, actual: " + maxQueueDepth);
+
+		List<LOConverter> workers = new ArrayList<>();
+		PoisonRegistry poisonRegistry = new PoisonRegistry();
+		InFlightConversions inFlightConversions = new InFlightConversions();
+		for(LOAddress address : addresses) {
+			LOConverter worker = new LOConverter(address, officeHome);
+			worker.setPoisonRegistry(poisonRegistry);
+			worker.setInFlightConversions(inFlightConversions);
+			workers.add(worker);
+		}
+		this.workers = Collections.unmodifiableList(workers);
+
+		this.freeSlots = new FairShareScheduler(poolSize, this::getTenantWeight);
+		for(LOConverter worker : workers)
+			busySlots.put(worker, 0);
+
+		this.maxQueueDepth = maxQueueDepth;
+		this.asyncTaskPermits = new ResizableSemaphore(poolSize + maxQueueDepth);
+		this.asyncExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(), new WorkerThreadFactory(addresses.get(0).getId()));
+
+		logger.info("LibreOffice converter pool was created with {} workers on {}", poolSize, addresses);
+	}
+
+	public void terminateOfficeProcesses() {
+		asyncExecutor.shutdown();
+
+		RuntimeException failure = null;
+		for(LOConverter worker : workers) {
+			try {
+				worker.terminateOfficeProcess();
+			} catch(RuntimeException e) {
+				if(failure == null) failure = e;
+				else failure.addSuppressed(e);
+			}
+		}
+
+		if(failure != null)
+			throw failure;
+	}
+
+	/*
+	* The cache is shared by all workers of the pool.
+	*/
+	public void setConversionCache(ConversionCache conversionCache) {
+		for(LOConverter worker : workers)
+			worker.setConversionCache(conversionCache);
+	}
+
+	public void setSourceSpooler(SourceSpooler sourceSpooler) {
+		for(LOConverter worker : workers)
+			worker.setSourceSpooler(sourceSpooler);
+	}
+
+	/*
+	* Identical conversions in progress are detected across all workers of the pool. A waiting call doesn't take
+	* a slot of the pool.
+	*/
+	public void setSingleFlightEnabled(boolean singleFlightEnabled) {
+		for(LOConverter worker : workers)
+			worker.setSingleFlightEnabled(singleFlightEnabled);
+	}
+
+	public void setDefaultTimeout(Duration defaultTimeout) {
+		for(LOConverter worker : workers)
+			worker.setDefaultTimeout(defaultTimeout);
+	}
+
+	public void setDefaultTimeout(String targetExtension, Duration timeout) {
+		for(LOConverter worker : workers)
+			worker.setDefaultTimeout(targetExtension, timeout);
+	}
+
+	public void setCancellationGracePeriod(Duration cancellationGracePeriod) {
+		for(LOConverter worker : workers)
+			worker.setCancellationGracePeriod(cancellationGracePeriod);
+	}
+
+	public void setLivenessCheckIdlePeriod(Duration livenessCheckIdlePeriod) {
+		for(LOConverter worker : workers)
+			worker.setLivenessCheckIdlePeriod(livenessCheckIdlePeriod);
+	}
+
+	public void setProfileTemplate(LOProfileTemplate profileTemplate) {
+		for(LOConverter worker : workers)
+			worker.setProfileTemplate(profileTemplate);
+	}
+
+	public void setRecyclePolicy(RecyclePolicy recyclePolicy) {
+		for(LOConverter worker : workers)
+			worker.setRecyclePolicy(recyclePolicy);
+	}
+
+	/*
+	* Documents that crash LibreOffice are counted by all workers together.
+	*/
+	public void setRecoveryPolicy(RecoveryPolicy recoveryPolicy) {
+		for(LOConverter worker : workers)
+			worker.setRecoveryPolicy(recoveryPolicy);
+	}
+
+	public void clearPoisonDocuments() {
+		workers.get(0).clearPoisonDocuments();
+	}
+
+	public void setPropertiesSettings(PropertiesSettings propertiesSettings) {
+		for(LOConverter worker : workers)
+			worker.setPropertiesSettings(propertiesSettings);
+	}
+
+	public void addConversionListener(ConversionListener listener) {
+		for(LOConverter worker : workers)
+			worker.addConversionListener(listener);
+	}
+
+	public void removeConversionListener(ConversionListener listener) {
+		for(LOConverter worker : workers)
+			worker.removeConversionListener(listener);
+	}
+
+	/*
+	* Number of documents that each LibreOffice process of the pool converts at the same time (see LOConverter.setMaxConcurrentDocuments).
+	*/
+	public synchronized void setMaxConcurrentDocumentsPerProcess(int maxConcurrentDocuments) {
+		for(LOConverter worker : workers)
+			worker.setMaxConcurrentDocuments(maxConcurrentDocuments);
+		slotsPerWorker = maxConcurrentDocuments;
+
+		int slots = workers.size() * maxConcurrentDocuments;
+		freeSlots.resize(slots);
+		asyncTaskPermits.resize(slots + maxQueueDepth);
+		if(slots > asyncExecutor.getMaximumPoolSize()) {
+			asyncExecutor.setMaximumPoolSize(slots);
+			asyncExecutor.setCorePoolSize(slots);
+		} else {
+			asyncExecutor.setCorePoolSize(slots);
+			asyncExecutor.setMaximumPoolSize(slots);
+		}
+	}
+
+	public synchronized int getMaxConcurrentDocumentsPerProcess() {
+		return slotsPerWorker;
+	}
+
+	/*
+	* Number of the pool's slots that only calls with HIGH priority can take. Zero by default.
+	* Must be less than the number of slots, otherwise other calls would never get a slot.
+	*/
+	public void setReservedHighPrioritySlots(int reservedSlots) {
+		if(reservedSlots < 0 || reservedSlots >= freeSlots.getSlots())
+			throw new IllegalArgumentException("Reserved slots must be in range [0, " + freeSlots.getSlots() + "), actual: " + reservedSlots);
+		freeSlots.setReservedSlots(reservedSlots);
+	}
+
+	public int getReservedHighPrioritySlots() {
+		return freeSlots.getReservedSlots();
+	}
+
+	/*
+	* While calls of several tenants wait, each tenant gets a share of the free slots proportional to its weight.
+	* The weight of a tenant is 1 by default.
+	*/
+	public void setTenantWeight(String tenant, int weight) {
+		if(weight < 1)
+			throw new IllegalArgumentException("Tenant weight must be greater than 0, actual: " + weight);
+		tenantWeights.put(tenant != null ? tenant : ConversionOptions.DefaultTenant, weight);
+	}
+
+	public int getTenantWeight(String tenant) {
+		return tenantWeights.getOrDefault(tenant != null ? tenant : ConversionOptions.DefaultTenant, 1);
+	}
+
+	/*
+	* Number of synchronous and asynchronous calls that wait for a free slot.
+	*/
+	public int getWaitingCallsNumber() {
+		int pendingAsyncTasksNumber;
+		synchronized(pendingAsyncTasks) {
+			pendingAsyncTasksNumber = pendingAsyncTasks.size();
+		}
+		return freeSlots.getWaitingNumber() + pendingAsyncTasksNumber;
+	}
+
+	public int getPoolSize() {
+		return workers.size();
+	}
+
+	public synchronized int getIdleWorkersNumber() {
+		int idleWorkers = 0;
+		for(int busy : busySlots.values())
+			if(busy == 0) ++idleWorkers;
+		return idleWorkers;
+	}
+
+	public int getAsyncTasksNumber() {
+		return asyncTaskPermits.getPermits() - asyncTaskPermits.availablePermits();
+	}
+
+	public Duration getQueueWaitTimeout() {
+		return queueWaitTimeout;
+	}
+
+	public void setQueueWaitTimeout(Duration queueWaitTimeout) {
+		if(queueWaitTimeout == null || queueWaitTimeout.isNegative())
+			throw new IllegalArgumentException("Queue wait timeout must not be null or negative: " + queueWaitTimeout);
+		this.queueWaitTimeout = queueWaitTimeout;
+	}
+
+
+	public void compare(String firstDocumentAbsolutPath, String secondDocumentAbsolutPath, String resultDocumentAbsolutPath) {
+		execute(worker -> worker.compare(firstDocumentAbsolutPath, secondDocumentAbsolutPath, resultDocumentAbsolutPath));
+	}
+
+	public void compare(String firstDocumentAbsolutPath, String secondDocumentAbsolutPath, String resultDocumentAbsolutPath, ConversionOptions options) {
+		execute(options, worker -> worker.compare(firstDocumentAbsolutPath, secondDocumentAbsolutPath, resultDocumentAbsolutPath, options));
+	}
+
+	public void convert(InputStream source, String targetFileAbsolutPath) {
+		convert(source, targetFileAbsolutPath, null, ConversionOptions.defaults());
+	}
+
+	public void convert(InputStream source, String targetFileAbsolutPath, Map<String, String> optionalParameters) {
+		convert(source, targetFileAbsolutPath, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public void convert(InputStream source, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options) {
+		frontWorker().convert(source, targetFileAbsolutPath, optionalParameters, options, this::execute);
+	}
+
+	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath) {
+		convert(sourceFileAbsolutPath, targetFileAbsolutPath, null, ConversionOptions.defaults());
+	}
+
+	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters) {
+		convert(sourceFileAbsolutPath, targetFileAbsolutPath, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public void convert(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options) {
+		frontWorker().convert(sourceFileAbsolutPath, targetFileAbsolutPath, optionalParameters, options, this::execute);
+	}
+
+	public void convert(InputStream source, OutputStream target, String targetExtension) {
+		convert(source, target, targetExtension, null, ConversionOptions.defaults());
+	}
+
+	public void convert(InputStream source, OutputStream target, String targetExtension, Map<String, String> optionalParameters) {
+		convert(source, target, targetExtension, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public void convert(InputStream source, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options) {
+		frontWorker().convert(source, target, targetExtension, optionalParameters, options, this::execute);
+	}
+
+	public void convert(String sourceFileAbsolutPath, OutputStream target, String targetExtension) {
+		convert(sourceFileAbsolutPath, target, targetExtension, null, ConversionOptions.defaults());
+	}
+
+	public void convert(String sourceFileAbsolutPath, OutputStream target, String targetExtension, Map<String, String> optionalParameters) {
+		convert(sourceFileAbsolutPath, target, targetExtension, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public void convert(String sourceFileAbsolutPath, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options) {
+		frontWorker().convert(sourceFileAbsolutPath, target, targetExtension, optionalParameters, options, this::execute);
+	}
+
+	public void convert(InputStream source, List<ConversionTarget> targets) {
+		execute(worker -> worker.convert(source, targets));
+	}
+
+	public void convert(InputStream source, List<ConversionTarget> targets, ConversionOptions options) {
+		execute(options, worker -> worker.convert(source, targets, options));
+	}
+
+	public void convert(String sourceFileAbsolutPath, List<ConversionTarget> targets) {
+		execute(worker -> worker.convert(sourceFileAbsolutPath, targets));
+	}
+
+	public void convert(String sourceFileAbsolutPath, List<ConversionTarget> targets, ConversionOptions options) {
+		execute(options, worker -> worker.convert(sourceFileAbsolutPath, targets, options));
+	}
+
+	public List<byte[]> preview(InputStream source, PreviewOptions previewOptions) {
+		return call(worker -> worker.preview(source, previewOptions));
+	}
+
+	public List<byte[]> preview(InputStream source, PreviewOptions previewOptions, ConversionOptions options) {
+		return call(options, worker -> worker.preview(source, previewOptions, options));
+	}
+
+	public List<byte[]> preview(String sourceFileAbsolutPath, PreviewOptions previewOptions) {
+		return call(worker -> worker.preview(sourceFileAbsolutPath, previewOptions));
+	}
+
+	public List<byte[]> preview(String sourceFileAbsolutPath, PreviewOptions previewOptions, ConversionOptions options) {
+		return call(options, worker -> worker.preview(sourceFileAbsolutPath, previewOptions, options));
+	}
+
+
+	public CompletableFuture<Void> compareAsync(String firstDocumentAbsolutPath, String secondDocumentAbsolutPath, String resultDocumentAbsolutPath) {
+		return submit(ConversionOptions.defaults(), (worker, taskOptions) -> worker.compare(firstDocumentAbsolutPath, secondDocumentAbsolutPath, resultDocumentAbsolutPath, taskOptions));
+	}
+
+	public CompletableFuture<Void> compareAsync(String firstDocumentAbsolutPath, String secondDocumentAbsolutPath, String resultDocumentAbsolutPath, ConversionOptions options) {
+		return submit(options, (worker, taskOptions) -> worker.compare(firstDocumentAbsolutPath, secondDocumentAbsolutPath, resultDocumentAbsolutPath, taskOptions));
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, String targetFileAbsolutPath) {
+		return convertAsync(source, targetFileAbsolutPath, null, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, String targetFileAbsolutPath, Map<String, String> optionalParameters) {
+		return convertAsync(source, targetFileAbsolutPath, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options) {
+		return submitTask(options, taskOptions -> {
+			frontWorker().convert(source, targetFileAbsolutPath, optionalParameters, taskOptions, this::execute);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, String targetFileAbsolutPath) {
+		return convertAsync(sourceFileAbsolutPath, targetFileAbsolutPath, null, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters) {
+		return convertAsync(sourceFileAbsolutPath, targetFileAbsolutPath, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, String targetFileAbsolutPath, Map<String, String> optionalParameters, ConversionOptions options) {
+		return submitTask(options, taskOptions -> {
+			frontWorker().convert(sourceFileAbsolutPath, targetFileAbsolutPath, optionalParameters, taskOptions, this::execute);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, OutputStream target, String targetExtension) {
+		return convertAsync(source, target, targetExtension, null, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, OutputStream target, String targetExtension, Map<String, String> optionalParameters) {
+		return convertAsync(source, target, targetExtension, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options) {
+		return submitTask(options, taskOptions -> {
+			frontWorker().convert(source, target, targetExtension, optionalParameters, taskOptions, this::execute);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, OutputStream target, String targetExtension) {
+		return convertAsync(sourceFileAbsolutPath, target, targetExtension, null, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, OutputStream target, String targetExtension, Map<String, String> optionalParameters) {
+		return convertAsync(sourceFileAbsolutPath, target, targetExtension, optionalParameters, ConversionOptions.defaults());
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, OutputStream target, String targetExtension, Map<String, String> optionalParameters, ConversionOptions options) {
+		return submitTask(options, taskOptions -> {
+			frontWorker().convert(sourceFileAbsolutPath, target, targetExtension, optionalParameters, taskOptions, this::execute);
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, List<ConversionTarget> targets) {
+		return submit(ConversionOptions.defaults(), (worker, taskOptions) -> worker.convert(source, targets, taskOptions));
+	}
+
+	public CompletableFuture<Void> convertAsync(InputStream source, List<ConversionTarget> targets, ConversionOptions options) {
+		return submit(options, (worker, taskOptions) -> worker.convert(source, targets, taskOptions));
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, List<ConversionTarget> targets) {
+		return submit(ConversionOptions.defaults(), (worker, taskOptions) -> worker.convert(sourceFileAbsolutPath, targets, taskOptions));
+	}
+
+	public CompletableFuture<Void> convertAsync(String sourceFileAbsolutPath, List<ConversionTarget> targets, ConversionOptions options) {
+		return submit(options, (worker, taskOptions) -> worker.convert(sourceFileAbsolutPath, targets, taskOptions));
+	}
+
+	public CompletableFuture<List<byte[]>> previewAsync(InputStream source, PreviewOptions previewOptions) {
+		return submitCall(ConversionOptions.defaults(), (worker, taskOptions) -> worker.preview(source, previewOptions, taskOptions));
+	}
+
+	public CompletableFuture<List<byte[]>> previewAsync(InputStream source, PreviewOptions previewOptions, ConversionOptions options) {
+		return submitCall(options, (worker, taskOptions) -> worker.preview(source, previewOptions, taskOptions));
+	}
+
+	public CompletableFuture<List<byte[]>> previewAsync(String sourceFileAbsolutPath, PreviewOptions previewOptions) {
+		return submitCall(ConversionOptions.defaults(), (worker, taskOptions) -> worker.preview(sourceFileAbsolutPath, previewOptions, taskOptions));
+	}
+
+	public CompletableFuture<List<byte[]>> previewAsync(String sourceFileAbsolutPath, PreviewOptions previewOptions, ConversionOptions options) {
+		return submitCall(options, (worker, taskOptions) -> worker.preview(sourceFileAbsolutPath, previewOptions, taskOptions));
+	}
+
+
+	private CompletableFuture<Void> submit(ConversionOptions options, BiConsumer<LOConverter, ConversionOptions> task) {
+		return submitCall(options, (worker, taskOptions) -> {
+			task.accept(worker, taskOptions);
+			return null;
+		});
+	}
+
+	private <T> CompletableFuture<T> submitCall(ConversionOptions options, BiFunction<LOConverter, ConversionOptions, T> task) {
+		return submitTask(options, taskOptions -> call(taskOptions, worker -> task.apply(worker, taskOptions)));
+	}
+
+	/*
+	* The task is put into pendingAsyncTasks and a thread of the executor takes the most preferred pending task,
+	* which is not necessarily this one, so the executor's own queue doesn't impose the arrival order.
+	* Canceling the result removes a pending task from the queue and cancels a running one with its ConversionHandle,
+	* so the task must pass the options it receives to the worker. Each task gets its own handle: the caller's handle
+	* can be shared by several calls, canceling one future must not cancel the others. Canceling the caller's handle
+	* still cancels the task.
+	*/
+	private <T> CompletableFuture<T> submitTask(ConversionOptions options, Function<ConversionOptions, T> task) {
+		if(!tryAcquireAsyncTaskPermit()) {
+			int maxAsyncTasks = asyncTaskPermits.getPermits();
+			logger.warn("LibreOffice converter pool is overloaded: {} tasks are already queued or running.", maxAsyncTasks);
+			return CompletableFuture.failedFuture(new ConverterOverloadedException(
+					"LibreOffice converter pool is overloaded: " + maxAsyncTasks + " tasks are already queued or running."));
+		}
+
+		ConversionOptions callOptions = options != null ? options : ConversionOptions.defaults();
+		ConversionHandle handle = new ConversionHandle();
+		ConversionOptions taskOptions = callOptions.withHandle(handle);
+		CancellableFuture<T> result = new CancellableFuture<>(handle);
+		ConversionHandle callerHandle = callOptions.getHandle();
+		if(callerHandle != null) {
+			Runnable canceller = handle::cancel;
+			callerHandle.attach(canceller);
+			result.whenComplete((value, e) -> callerHandle.detach(canceller));
+		}
+		Runnable pendingTask = () -> {
+			T value = null;
+			Throwable failure = null;
+			try {
+				if(!result.isDone())
+					value = task.apply(taskOptions);
+			} catch(Throwable e) {
+				failure = e;
+			}
+
+			/*
+			* The permit is released before the result is completed, so a caller that submits the next task
+			* from the completion of this one doesn't get ConverterOverloadedException.
+			*/
+			asyncTaskPermits.release();
+			if(failure != null)
+				result.completeExceptionally(failure);
+			else
+				result.complete(value);
+		};
+		result.onCancel(() -> {
+			boolean removed;
+			synchronized(pendingAsyncTasks) {
+				removed = pendingAsyncTasks.remove(pendingTask);
+			}
+			if(removed)
+				asyncTaskPermits.release();
+		});
+		synchronized(pendingAsyncTasks) {
+			pendingAsyncTasks.add(callOptions.getPriority(), callOptions.getTenant(), pendingTask);
+		}
+
+		try {
+			asyncExecutor.execute(this::runNextAsyncTask);
+			return result;
+		} catch(RejectedExecutionException e) {
+			synchronized(pendingAsyncTasks) {
+				pendingAsyncTasks.remove(pendingTask);
+			}
+			asyncTaskPermits.release();
+			result.completeExceptionally(e);
+			return result;
+		}
+	}
+
+	private void runNextAsyncTask() {
+		Runnable task;
+		synchronized(pendingAsyncTasks) {
+			task = pendingAsyncTasks.poll();
+		}
+		if(task != null)
+			task.run();
+	}
+
+	private boolean tryAcquireAsyncTaskPermit() {
+		try {
+			Duration timeout = queueWaitTimeout;
+			if(timeout.isZero())
+				return asyncTaskPermits.tryAcquire();
+			return asyncTaskPermits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void execute(Consumer<LOConverter> task) {
+		execute(ConversionOptions.defaults(), task);
+	}
+
+	/*
+	* Conversions with one target look up the cache and wait for identical conversions in progress before they take
+	* a slot (see ConversionDispatcher). The first worker runs these steps for all calls: the settings of all workers
+	* are the same, and the cache and the conversions in progress are shared.
+	*/
+	private LOConverter frontWorker() {
+		return workers.get(0);
+	}
+
+	private void execute(ConversionOptions options, Consumer<LOConverter> task) {
+		call(options, worker -> {
+			task.accept(worker);
+			return null;
+		});
+	}
+
+	private <T> T call(Function<LOConverter, T> task) {
+		return call(ConversionOptions.defaults(), task);
+	}
+
+	private <T> T call(ConversionOptions options, Function<LOConverter, T> task) {
+		LOConverter worker = acquireWorker(options != null ? options : ConversionOptions.defaults());
+		try {
+			return task.apply(worker);
+		} finally {
+			releaseWorker(worker);
+		}
+	}
+
+	private LOConverter acquireWorker(ConversionOptions options) {
+		try {
+			if(freeSlots.getFreeSlots() <= 0)
+				logger.debug("All LibreOffice workers are busy. Wait for a free worker...");
+			freeSlots.acquire(options.getPriority(), options.getTenant(), options.getHandle());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a free LibreOffice worker.", e);
+		}
+		return leastBusyWorker();
+	}
+
+	/*
+	* A free slot was acquired, so there is a worker with less than slotsPerWorker busy slots.
+	* Workers are checked in order, so with one slot per worker the first workers are preferred.
+	*/
+	private synchronized LOConverter leastBusyWorker() {
+		LOConverter result = null;
+		int resultBusySlots = Integer.MAX_VALUE;
+		for(LOConverter worker : workers) {
+			int busy = busySlots.get(worker);
+			if(busy < resultBusySlots) {
+				result = worker;
+				resultBusySlots = busy;
+			}
+		}
+		busySlots.put(result, resultBusySlots + 1);
+		return result;
+	}
+
+	private void releaseWorker(LOConverter worker) {
+		synchronized(this) {
+			busySlots.merge(worker, -1, Integer::sum);
+		}
+		freeSlots.release();
+	}
+
+
+	private static class CancellableFuture<T> extends CompletableFuture<T> {
+
+		private final ConversionHandle handle;
+		private volatile Runnable onCancel;
+
+		public CancellableFuture(ConversionHandle handle) {
+			this.handle = handle;
+		}
+
+		public void onCancel(Runnable onCancel) {
+			this.onCancel = onCancel;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if(cancelled) {
+				Runnable action = onCancel;
+				if(action != null)
+					action.run();
+				handle.cancel();
+			}
+			return cancelled;
+		}
+	}
+
+	private static class WorkerThreadFactory implements ThreadFactory {
+
+		private final String poolId;
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		public WorkerThreadFactory(String poolId) {
+			this.poolId = poolId;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "loConverterPool-" + poolId + "-worker-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
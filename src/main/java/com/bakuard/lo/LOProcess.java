@@ -1,21 +1,22 @@
 package com.bakuard.lo;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 public class LOProcess {
 
@@ -23,61 +24,147 @@ public class LOProcess {
 
 	private final String acceptString;
 	private final ProcessBuilder processBuilder;
-	private final int port;
-	private Process process;
+	private final LOAddress address;
 	private final String officeHome;
+	private final Path userInstallationDir;
+	private final Path pidFile;
+
+	/*
+	* process - is set only if the process was started by this object.
+	* processHandle - is set both for the started process and for an already running process that was found by the pid file.
+	*/
+	private volatile Process process;
+	private volatile ProcessHandle processHandle;
+
+	private volatile LOProfileTemplate profileTemplate;
 
 	public LOProcess(int port, String officeHome) {
-		this.port = port;
+		this(LOAddress.socket(port), officeHome);
+	}
+
+	public LOProcess(LOAddress address, String officeHome) {
+		this.address = address;
 		this.officeHome = officeHome;
-		this.acceptString = String.format("socket,host=127.0.0.1,port=%d,tcpNoDelay=1;urp;StarOffice.ServiceManager", port);
+		this.acceptString = address.getConnectionString() + ";urp;StarOffice.ServiceManager";
+		this.userInstallationDir = Paths.get(System.getProperty("java.io.tmpdir"), ".loConverter-" + address.getId());
+		this.pidFile = userInstallationDir.resolveSibling(userInstallationDir.getFileName() + ".pid");
 		this.processBuilder = new ProcessBuilder(prepareCommandForStartOffice());
 	}
 
-	public void start() {
+	public synchronized void start() {
 		if(isLibreOfficeProcessExists())
 			return;
 
+		LOProfileTemplate profileTemplate = this.profileTemplate;
+		if(profileTemplate != null)
+			profileTemplate.copyTo(userInstallationDir);
+
 		try {
 			process = processBuilder.start();
-			logger.info("LibreOffice process was started with port {}", port);
+			processHandle = process.toHandle();
+			writePidFile(processHandle.pid());
+			logger.info("LibreOffice process was started with {} and pid {}", address, processHandle.pid());
 		} catch (IOException e) {
 			throw new RuntimeException("Fail to start LibreOffice process.", e);
 		}
 	}
 
-	public void terminate() {
-		if(process == null)
+	public synchronized void terminate() {
+		ProcessHandle processHandle = this.processHandle;
+		if(processHandle == null)
 			return;
 
-		process.destroy();
-		if(process.isAlive())
-			process.destroyForcibly();
-		process = null;
+		List<ProcessHandle> descendants = processHandle.descendants().toList();
+		processHandle.destroy();
+		if(processHandle.isAlive())
+			processHandle.destroyForcibly();
+		descendants.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly);
+		this.process = null;
+		this.processHandle = null;
+		deletePidFile();
 
-		logger.info("LibreOffice process with port {} was terminated.", port);
+		logger.info("LibreOffice process with {} was terminated.", address);
 	}
 
 	public void waitOffice(long timeUnitNumber, TimeUnit timeUnit) {
-		boolean isProcessHasBeenStopped = false;
+		ProcessHandle processHandle = this.processHandle;
+		if(processHandle == null)
+			throw new ProcessUnavailableException("LibreOffice process was not started.");
+
 		try {
-			isProcessHasBeenStopped = process.waitFor(timeUnitNumber, timeUnit);
-		} catch(Exception e) {
-			throw new ProcessUnavailableException("LibreOffice process has been crashed with code: " + process.exitValue(), e);
+			processHandle.onExit().get(timeUnitNumber, timeUnit);
+		} catch(TimeoutException e) {
+			return;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProcessUnavailableException("Interrupted while waiting for LibreOffice process.", e);
+		} catch(ExecutionException e) {
+			throw new ProcessUnavailableException("LibreOffice process has been crashed" + exitCodeDescription(), e);
+		}
+
+		throw new ProcessUnavailableException("LibreOffice process has exited" + exitCodeDescription());
+	}
+
+	/*
+	* Completes when the LibreOffice process exits. If the process is not running, the returned future never completes.
+	*/
+	public CompletableFuture<Void> onExit() {
+		ProcessHandle processHandle = this.processHandle;
+		if(processHandle == null)
+			return new CompletableFuture<>();
+		return processHandle.onExit().thenApply(exitedProcess -> null);
+	}
+
+	public OptionalLong getPid() {
+		ProcessHandle processHandle = this.processHandle;
+		return processHandle != null ? OptionalLong.of(processHandle.pid()) : OptionalLong.empty();
+	}
+
+	/*
+	* Resident memory of the process and its descendants (the soffice launcher starts soffice.bin as a child),
+	* read from /proc/<pid>/status. Empty if the process is not running or the platform has no /proc.
+	*/
+	public OptionalLong getResidentMemoryBytes() {
+		ProcessHandle processHandle = this.processHandle;
+		if(processHandle == null)
+			return OptionalLong.empty();
+
+		long total = 0L;
+		boolean found = false;
+		for(ProcessHandle handle : Stream.concat(Stream.of(processHandle), processHandle.descendants()).toList()) {
+			OptionalLong memory = readResidentMemoryBytes(handle.pid());
+			if(memory.isPresent()) {
+				total += memory.getAsLong();
+				found = true;
+			}
 		}
+		return found ? OptionalLong.of(total) : OptionalLong.empty();
+	}
+
+	public Optional<ProcessHandle> getProcessHandle() {
+		return Optional.ofNullable(processHandle);
+	}
+
+	/*
+	* If set, the template is copied into the UserInstallation directory of the process
+	* before the start, unless this directory already contains a profile.
+	*/
+	public void setProfileTemplate(LOProfileTemplate profileTemplate) {
+		this.profileTemplate = profileTemplate;
+	}
 
-		if(isProcessHasBeenStopped)
-			throw new ProcessUnavailableException("LibreOffice process has exited with code: " + process.exitValue());
+	public LOAddress getAddress() {
+		return address;
 	}
 
 	public int getPort() {
-		return port;
+		return address.getPort();
 	}
 
 
 	private List<String> prepareCommandForStartOffice() {
 		List<String> args = new ArrayList<>();
-		args.add(getOfficeExecutable());
+		args.add(getOfficeExecutable(officeHome));
 		args.add("--accept=" + acceptString);
 		args.add("--headless");
 		args.add("--invisible");
@@ -93,12 +180,10 @@ public class LOProcess {
 	}
 
 	private String createTempFileUri() {
-		File tempDir = new File(System.getProperty("java.io.tmpdir"));
-		String fileName = ".loConverter-socket-localhost-" + port + "-tcpNoDelay-1";
-		return new File(tempDir, fileName).toURI().toString();
+		return userInstallationDir.toUri().toString();
 	}
 
-	private String getOfficeExecutable() {
+	static String getOfficeExecutable(String officeHome) {
 		Path officeHomePath = Paths.get(officeHome);
 
 		if(!Files.isDirectory(officeHomePath))
@@ -114,61 +199,80 @@ public class LOProcess {
 	}
 
 
+	/*
+	* The process started by this object is tracked by its ProcessHandle. A process left by a previous run
+	* of the application is looked up at every start, but only by the pid file next to the UserInstallation
+	* directory of this converter: a process that merely has the same command line may belong to another
+	* application, and it is never adopted (or terminated later) by this object. A stale pid file is deleted.
+	*/
 	private boolean isLibreOfficeProcessExists() {
-		ProcessBuilder processBuilder = null;
-		Pattern processGetLine = null;
-
-		if(isWindows()) {
-			processBuilder = new ProcessBuilder("cmd", "/c", "wmic process where(name like 'soffice%') get commandline,processid");
-			processGetLine = Pattern.compile("^\\s*(?<CommandLine>.*?)\\s+(?<Pid>\\d+)\\s*$");
-		} else {
-			processBuilder = new ProcessBuilder( "/bin/sh", "-c", "/bin/ps -e -o pid,args | /bin/grep soffice | /bin/grep -v grep");
-			processGetLine = Pattern.compile("^\\s*(?<Pid>\\d+)\\s+(?<CommandLine>.*)$");
-		}
+		ProcessHandle processHandle = this.processHandle;
+		if(processHandle != null && processHandle.isAlive())
+			return true;
 
-		List<String> commands = findAnyOfficeProcesses(processBuilder);
-		boolean isProcessExists = matchOfficeProcesses(commands, processGetLine);
+		this.process = null;
+		this.processHandle = null;
+		Optional<ProcessHandle> leftoverProcess = findProcessByPidFile();
+		leftoverProcess.ifPresentOrElse(handle -> this.processHandle = handle, this::deletePidFile);
 
-		logger.info("Check if LibreOffice process already exists: {}", isProcessExists);
-		return isProcessExists;
+		logger.info("Check if LibreOffice process already exists: {}", leftoverProcess.isPresent());
+		return leftoverProcess.isPresent();
 	}
 
-	private List<String> findAnyOfficeProcesses(ProcessBuilder officeProcessesFinder) {
-		List<String> commands = new ArrayList<>();
-		BufferedReader reader = null;
+	private Optional<ProcessHandle> findProcessByPidFile() {
+		if(!Files.isRegularFile(pidFile))
+			return Optional.empty();
 
 		try {
-			Process process = officeProcessesFinder.start();
-			reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-			String line = reader.readLine();
-			while(line != null) {
-				if(!line.isBlank())
-					commands.add(line);
-				line = reader.readLine();
-			}
-		} catch(IOException e) {
-			logger.error("Fail to read existed process.", e);
-		} finally {
-			IOUtils.closeQuietly(reader);
+			long pid = Long.parseLong(Files.readString(pidFile, StandardCharsets.UTF_8).trim());
+			return ProcessHandle.of(pid).filter(ProcessHandle::isAlive).filter(this::isOfficeProcess);
+		} catch(IOException | NumberFormatException e) {
+			logger.debug("Fail to read LibreOffice pid file {}. Reason: {}", pidFile, e.getMessage());
+			return Optional.empty();
 		}
-		return commands;
 	}
 
-	private boolean matchOfficeProcesses(List<String> processCommands, Pattern processLineExtracter) {
-		final Pattern commandPattern = Pattern.compile(Pattern.quote("soffice") + ".*" + Pattern.quote("--accept=" + acceptString));
+	private boolean isOfficeProcess(ProcessHandle handle) {
+		ProcessHandle.Info info = handle.info();
+		String commandLine = info.commandLine().orElse("");
+		return info.command().orElse("").contains("soffice") && commandLine.contains("--accept=" + acceptString);
+	}
 
-		for(String line : processCommands) {
-			Matcher matcher = processLineExtracter.matcher(line);
-			if(!matcher.matches())
-				continue;
+	private void writePidFile(long pid) {
+		try {
+			Files.writeString(pidFile, Long.toString(pid), StandardCharsets.UTF_8);
+		} catch(IOException e) {
+			logger.warn("Fail to write LibreOffice pid file {}", pidFile, e);
+		}
+	}
 
-			String commandLine = matcher.group("CommandLine");
-			Matcher commandMatcher = commandPattern.matcher(commandLine);
+	private void deletePidFile() {
+		try {
+			Files.deleteIfExists(pidFile);
+		} catch(IOException e) {
+			logger.warn("Fail to delete LibreOffice pid file {}", pidFile, e);
+		}
+	}
 
-			if(commandMatcher.find())
-				return true;
+	private static OptionalLong readResidentMemoryBytes(long pid) {
+		Path status = Paths.get("/proc", Long.toString(pid), "status");
+		try {
+			for(String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+				if(line.startsWith("VmRSS:")) {
+					String[] parts = line.substring("VmRSS:".length()).trim().split("\\s+");
+					return OptionalLong.of(Long.parseLong(parts[0]) * 1024L);
+				}
+			}
+		} catch(IOException | NumberFormatException e) {
+			logger.trace("Fail to read resident memory of process {}. Reason: {}", pid, e.getMessage());
 		}
+		return OptionalLong.empty();
+	}
 
-		return false;
+	private String exitCodeDescription() {
+		Process process = this.process;
+		if(process != null && !process.isAlive())
+			return " with code: " + process.exitValue();
+		return ".";
 	}
 }
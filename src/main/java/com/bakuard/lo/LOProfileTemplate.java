@@ -0,0 +1,177 @@
+package com.bakuard.lo;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/*
+* At the first start LibreOffice spends several seconds on creating a user profile (UserInstallation directory).
+* The template is such a profile created once with --terminate_after_init and tuned for headless batch work.
+* It is copied into the profile directory of each LibreOffice process before its first start,
+* so the process starts with a ready profile.
+*
+* The profile is copied, not hard-linked: LibreOffice rewrites files of the profile (for example,
+* registrymodifications.xcu) in place, and hard links would share these changes between processes.
+*/
+public class LOProfileTemplate {
+
+	private static final Logger logger = LoggerFactory.getLogger(LOProfileTemplate.class.getName());
+
+	private static final String CompletionMarker = ".loConverter-template-complete";
+	private static final long CreationTimeoutSeconds = 120;
+
+	/*
+	* Registry settings for headless batch conversion: no first start wizard, no autosave and document recovery,
+	* no tips and update checks, no file locking, macros from documents are never executed.
+	*/
+	private static final String BatchRegistryItems = """
+			<item oor:path="/org.openoffice.Setup/Office"><prop oor:name="ooSetupInstCompleted" oor:op="fuse"><value>true</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Common/Misc"><prop oor:name="FirstRun" oor:op="fuse"><value>false</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Common/Misc"><prop oor:name="ShowTipOfTheDay" oor:op="fuse"><value>false</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Common/Misc"><prop oor:name="UseLocking" oor:op="fuse"><value>false</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Common/Save/Document"><prop oor:name="AutoSave" oor:op="fuse"><value>false</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Recovery/AutoSave"><prop oor:name="Enabled" oor:op="fuse"><value>false</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Recovery/RecoveryInfo"><prop oor:name="Enabled" oor:op="fuse"><value>false</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Jobs/Jobs/org.openoffice.Office.Jobs:Job['UpdateCheck']/Arguments"><prop oor:name="AutoCheckEnabled" oor:op="fuse"><value>false</value></prop></item>
+			<item oor:path="/org.openoffice.Office.Common/Security/Scripting"><prop oor:name="MacroSecurityLevel" oor:op="fuse"><value>3</value></prop></item>
+			""";
+
+	/*
+	* Creates the template in templateDir if it doesn't exist yet and returns it.
+	*/
+	public static LOProfileTemplate create(String officeHome, Path templateDir) {
+		LOProfileTemplate template = new LOProfileTemplate(templateDir);
+		if(template.isComplete()) {
+			logger.info("LibreOffice profile template already exists: {}", template.getDirectory());
+			return template;
+		}
+
+		template.initialize(officeHome);
+		return template;
+	}
+
+	public static LOProfileTemplate of(Path templateDir) {
+		LOProfileTemplate template = new LOProfileTemplate(templateDir);
+		if(!template.isComplete())
+			throw new IllegalArgumentException("Directory doesn't contain LibreOffice profile template: " + templateDir);
+		return template;
+	}
+
+
+	private final Path directory;
+
+	private LOProfileTemplate(Path directory) {
+		this.directory = directory.toAbsolutePath();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/*
+	* Copies the template into profileDir if profileDir doesn't exist or is empty.
+	* An existing profile is kept as is.
+	*/
+	public void copyTo(Path profileDir) {
+		try {
+			if(Files.isDirectory(profileDir) && !isEmptyDirectory(profileDir))
+				return;
+
+			try(Stream<Path> files = Files.walk(directory)) {
+				for(Path file : (Iterable<Path>) files::iterator) {
+					Path relativePath = directory.relativize(file);
+					if(relativePath.toString().equals(CompletionMarker))
+						continue;
+
+					Path target = profileDir.resolve(relativePath.toString());
+					if(Files.isDirectory(file))
+						Files.createDirectories(target);
+					else
+						Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+				}
+			}
+
+			logger.debug("LibreOffice profile template was copied to {}", profileDir);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to copy LibreOffice profile template to " + profileDir, e);
+		}
+	}
+
+
+	private boolean isComplete() {
+		return Files.isRegularFile(directory.resolve(CompletionMarker));
+	}
+
+	private void initialize(String officeHome) {
+		logger.info("Create LibreOffice profile template in {}", directory);
+		try {
+			Files.createDirectories(directory);
+			runOfficeInitialization(officeHome);
+			tuneRegistry();
+			Files.createFile(directory.resolve(CompletionMarker));
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to create LibreOffice profile template in " + directory, e);
+		}
+	}
+
+	private void runOfficeInitialization(String officeHome) throws IOException {
+		List<String> args = new ArrayList<>();
+		args.add(LOProcess.getOfficeExecutable(officeHome));
+		args.add("--headless");
+		args.add("--invisible");
+		args.add("--nocrashreport");
+		args.add("--nodefault");
+		args.add("--nofirststartwizard");
+		args.add("--nolockcheck");
+		args.add("--nologo");
+		args.add("--norestore");
+		args.add("--terminate_after_init");
+		args.add("-env:UserInstallation=" + directory.toUri());
+
+		Process process = new ProcessBuilder(args)
+				.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+				.redirectError(ProcessBuilder.Redirect.DISCARD)
+				.start();
+		try {
+			if(!process.waitFor(CreationTimeoutSeconds, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				throw new ProcessUnavailableException("LibreOffice didn't create profile template in " + CreationTimeoutSeconds + " seconds.");
+			}
+		} catch(InterruptedException e) {
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+			throw new ProcessUnavailableException("Interrupted while creating LibreOffice profile template.", e);
+		}
+	}
+
+	private void tuneRegistry() throws IOException {
+		Path registry = directory.resolve("user").resolve("registrymodifications.xcu");
+		if(!Files.isRegularFile(registry)) {
+			logger.warn("LibreOffice didn't create {}, registry of profile template is not tuned.", registry);
+			return;
+		}
+
+		String content = Files.readString(registry, StandardCharsets.UTF_8);
+		int itemsEnd = content.lastIndexOf("</oor:items>");
+		if(itemsEnd < 0) {
+			logger.warn("Unexpected format of {}, registry of profile template is not tuned.", registry);
+			return;
+		}
+
+		content = content.substring(0, itemsEnd) + BatchRegistryItems + content.substring(itemsEnd);
+		Files.writeString(registry, content, StandardCharsets.UTF_8);
+	}
+
+	private static boolean isEmptyDirectory(Path dir) throws IOException {
+		try(Stream<Path> files = Files.list(dir)) {
+			return files.findAny().isEmpty();
+		}
+	}
+}
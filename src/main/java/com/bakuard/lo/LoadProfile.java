@@ -0,0 +1,100 @@
+package com.bakuard.lo;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+* Properties that are passed to LibreOffice when a document is loaded. Each format of the registry
+* has its own profile (see 'loadProfile' and 'loadProperties' in documents-formats.json; standard if a format
+* doesn't declare it, all default formats declare fast), a profile from ConversionOptions replaces it for one call.
+* Instances are immutable, every with...() method returns a new instance.
+*
+* standard - the document is hidden and links are not updated.
+* fast - in addition, the document is read-only and macros are never executed. Suitable for documents
+*  that are only stored in another format.
+*/
+public class LoadProfile {
+
+	private static final int NoUpdate = 0;
+	private static final int NeverExecute = 0;
+
+	private static final LoadProfile Standard = new LoadProfile("standard", Map.of(
+			"Hidden", true,
+			"UpdateDocMode", NoUpdate
+	));
+
+	private static final LoadProfile Fast = Standard.withName("fast")
+			.withProperty("ReadOnly", true)
+			.withProperty("MacroExecutionMode", NeverExecute);
+
+	public static LoadProfile standard() {
+		return Standard;
+	}
+
+	public static LoadProfile fast() {
+		return Fast;
+	}
+
+	/*
+	* Returns null for an unknown name.
+	*/
+	public static LoadProfile findByName(String name) {
+		if(name == null)
+			return null;
+
+		return switch(name.toLowerCase(Locale.ROOT)) {
+			case "standard" -> Standard;
+			case "fast" -> Fast;
+			default -> null;
+		};
+	}
+
+
+	private final String name;
+	private final Map<String, Object> properties;
+
+	private LoadProfile(String name, Map<String, Object> properties) {
+		this.name = name;
+		this.properties = Collections.unmodifiableMap(new LinkedHashMap<>(properties));
+	}
+
+	public LoadProfile withName(String name) {
+		return new LoadProfile(name, properties);
+	}
+
+	public LoadProfile withProperty(String propertyName, Object value) {
+		Map<String, Object> result = new LinkedHashMap<>(properties);
+		result.put(propertyName, value);
+		return new LoadProfile(name, result);
+	}
+
+	public LoadProfile withProperties(Map<String, ?> properties) {
+		Map<String, Object> result = new LinkedHashMap<>(this.properties);
+		result.putAll(properties);
+		return new LoadProfile(name, result);
+	}
+
+	public LoadProfile withoutProperty(String propertyName) {
+		Map<String, Object> result = new LinkedHashMap<>(properties);
+		result.remove(propertyName);
+		return new LoadProfile(name, result);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Map<String, Object> getProperties() {
+		return properties;
+	}
+
+	@Override
+	public String toString() {
+		return "LoadProfile{" +
+				"name='" + name + '\'' +
+				", properties=" + properties +
+				'}';
+	}
+}
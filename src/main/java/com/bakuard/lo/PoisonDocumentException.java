@@ -0,0 +1,13 @@
+package com.bakuard.lo;
+
+public class PoisonDocumentException extends RuntimeException {
+
+	public PoisonDocumentException(String message) {
+		super(message);
+	}
+
+	public PoisonDocumentException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.bakuard.lo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+* Number of LibreOffice crashes for each source document, the key of a document is a SHA-256 hash of its content.
+* The registry can be shared by several converters (the workers of LOConverterPool share one), so a document
+* that crashes one worker is recognized by the others. The oldest records are dropped when MaxEntries is exceeded,
+* a record also expires if its document hasn't crashed LibreOffice again for EntryLifetime.
+*
+* Hashing a large source costs as much as reading it, so the registry also keeps the lengths of the recorded
+* documents: a source is hashed only when a document of the same length has crashed LibreOffice.
+*/
+final class PoisonRegistry {
+
+	private static final int MaxEntries = 10_000;
+	private static final long EntryLifetimeNanos = Duration.ofHours(1).toNanos();
+
+	private final LinkedHashMap<String, Entry> crashes = new LinkedHashMap<>(16, 0.75f, false) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			if(size() <= MaxEntries)
+				return false;
+			forgetLength(eldest.getValue().sourceLength);
+			return true;
+		}
+	};
+	private final HashMap<Long, Integer> sourceLengths = new HashMap<>();
+
+	static String key(byte[] document) {
+		MessageDigest digest = SourceDigest.newDigest();
+		digest.update(document);
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	static String key(Path sourceFile) {
+		MessageDigest digest = SourceDigest.newDigest();
+		try {
+			SourceDigest.update(digest, sourceFile);
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to read source document: " + sourceFile, e);
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/*
+	* The record is moved to the end of the map, so the map stays ordered by the time of the last crash.
+	*/
+	synchronized int recordCrash(String key, long sourceLength) {
+		removeExpiredEntries();
+		Entry entry = crashes.remove(key);
+		if(entry == null)
+			sourceLengths.merge(sourceLength, 1, Integer::sum);
+		Entry updated = new Entry(entry != null ? entry.crashes + 1 : 1, sourceLength, System.nanoTime());
+		crashes.put(key, updated);
+		return updated.crashes;
+	}
+
+	synchronized int getCrashes(String key) {
+		removeExpiredEntries();
+		Entry entry = crashes.get(key);
+		return entry != null ? entry.crashes : 0;
+	}
+
+	/*
+	* Returns false if no recorded document has this length, then the source doesn't need to be hashed.
+	* A negative length means that the length is unknown.
+	*/
+	synchronized boolean mayContain(long sourceLength) {
+		removeExpiredEntries();
+		return sourceLength < 0 ? !crashes.isEmpty() : sourceLengths.containsKey(sourceLength);
+	}
+
+	synchronized void clear() {
+		crashes.clear();
+		sourceLengths.clear();
+	}
+
+
+	private void removeExpiredEntries() {
+		long now = System.nanoTime();
+		Iterator<Entry> iterator = crashes.values().iterator();
+		while(iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if(now - entry.lastCrashNanos < EntryLifetimeNanos)
+				return;
+			iterator.remove();
+			forgetLength(entry.sourceLength);
+		}
+	}
+
+	private void forgetLength(long sourceLength) {
+		sourceLengths.computeIfPresent(sourceLength, (length, count) -> count > 1 ? count - 1 : null);
+	}
+
+
+	private static final class Entry {
+
+		private final int crashes;
+		private final long sourceLength;
+		private final long lastCrashNanos;
+
+		private Entry(int crashes, long sourceLength, long lastCrashNanos) {
+			this.crashes = crashes;
+			this.sourceLength = sourceLength;
+			this.lastCrashNanos = lastCrashNanos;
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package com.bakuard.lo;
+
+import java.util.Locale;
+import java.util.Set;
+
+/*
+* Settings of a preview: a range of pages of the document exported to PDF (one result) or to PNG/JPEG
+* (one image for each page). Pages are numbered from 1, the range includes both bounds.
+* Instances are immutable, every with...() method returns a new instance.
+*/
+public class PreviewOptions {
+
+	private static final Set<String> SupportedFormats = Set.of("pdf", "png", "jpg", "jpeg");
+	private static final int DefaultResolution = 96;
+
+	public static PreviewOptions firstPage(String format) {
+		return pages(format, 1, 1);
+	}
+
+	public static PreviewOptions pages(String format, int firstPage, int lastPage) {
+		String normalizedFormat = format != null ? format.toLowerCase(Locale.ROOT) : null;
+		if(!SupportedFormats.contains(normalizedFormat))
+			throw new IllegalArgumentException("Unsupported preview format '" + format + "'. Supported formats: " + SupportedFormats);
+		if(firstPage < 1 || lastPage < firstPage)
+			throw new IllegalArgumentException("Incorrect page range: " + firstPage + "-" + lastPage);
+		return new PreviewOptions(normalizedFormat, firstPage, lastPage, DefaultResolution);
+	}
+
+
+	private final String format;
+	private final int firstPage;
+	private final int lastPage;
+	private final int resolution;
+
+	private PreviewOptions(String format, int firstPage, int lastPage, int resolution) {
+		this.format = format;
+		this.firstPage = firstPage;
+		this.lastPage = lastPage;
+		this.resolution = resolution;
+	}
+
+	/*
+	* Resolution of PNG/JPEG previews in dots per inch, 96 by default. The size of the image is calculated
+	* from the size of the page. Ignored for PDF.
+	*/
+	public PreviewOptions withResolution(int resolution) {
+		if(resolution < 1)
+			throw new IllegalArgumentException("Resolution must be greater than 0, actual: " + resolution);
+		return new PreviewOptions(format, firstPage, lastPage, resolution);
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public int getFirstPage() {
+		return firstPage;
+	}
+
+	public int getLastPage() {
+		return lastPage;
+	}
+
+	public int getResolution() {
+		return resolution;
+	}
+
+	public boolean isImage() {
+		return !format.equals("pdf");
+	}
+
+	/*
+	* The range in the syntax of the PageRange filter option, for example "1-3".
+	*/
+	public String getPageRange() {
+		return firstPage == lastPage ? Integer.toString(firstPage) : firstPage + "-" + lastPage;
+	}
+
+	public String getMediaType() {
+		return switch(format) {
+			case "pdf" -> "application/pdf";
+			case "png" -> "image/png";
+			default -> "image/jpeg";
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "PreviewOptions{" +
+				"format='" + format + '\'' +
+				", pages=" + getPageRange() +
+				", resolution=" + resolution +
+				'}';
+	}
+}
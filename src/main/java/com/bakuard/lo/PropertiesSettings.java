@@ -1,112 +1,243 @@
 package com.bakuard.lo;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.sun.star.beans.PropertyValue;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Collectors;
 
+/*
+* Registry of supported document formats and store properties. It is immutable after construction, so one instance
+* can be shared by all converters: use shared() instead of creating a new instance for each converter.
+*
+* Additional format files with the same structure as documents-formats.json can be merged over the default formats.
+* For the shared instance their paths are taken from the system property loConverter.formats (separated by
+* File.pathSeparator). An entry of an additional file replaces the format with the same extension
+* and the store properties with the same family and extension.
+*
+* Extensions and family names are case-insensitive. Returned PropertyValue arrays are copies and can be modified by the caller.
+*/
 public class PropertiesSettings {
 
-	private static class FamilyAndExtension {
-		private final String sourceFileFamily;
-		private final String targetFileExtension;
+	public static final String ExtraFormatsProperty = "loConverter.formats";
 
-		public FamilyAndExtension(String sourceFileFamily, String targetFileExtension) {
-			this.sourceFileFamily = sourceFileFamily;
-			this.targetFileExtension = targetFileExtension;
-		}
+	private static final Logger logger = LoggerFactory.getLogger(PropertiesSettings.class.getName());
 
-		@Override
-		public boolean equals(Object o) {
-			if(o == null || getClass() != o.getClass()) return false;
-			FamilyAndExtension that = (FamilyAndExtension) o;
-			return Objects.equals(sourceFileFamily, that.sourceFileFamily)
-						   && Objects.equals(targetFileExtension, that.targetFileExtension);
-		}
+	private static final String DefaultFormatsResource = "documents-formats.json";
 
-		@Override
-		public int hashCode() {
-			return Objects.hash(sourceFileFamily, targetFileExtension);
-		}
+	private static class SharedInstanceHolder {
+		private static final PropertiesSettings instance = new PropertiesSettings(extraFormatFilesFromSystemProperty());
 	}
 
-	private final Map<FamilyAndExtension, PropertyValue[]> storeProperties = new HashMap<>();
-	private final Set<String> supportedFileFormats = new HashSet<>();
-	private final Map<String, String> fileFamilyByExtension = new HashMap<>();
+	private final Map<DocumentFamily, Map<String, PropertyValue[]>> storeProperties;
+	private final Map<String, DocumentFormat> formatsByExtension;
+	private final Map<String, DocumentFormat> formatsByMediaType;
+	private final List<DocumentFormat> formats;
+
+	public static PropertiesSettings shared() {
+		return SharedInstanceHolder.instance;
+	}
 
 	public PropertiesSettings() {
-		parseStoreProperties(loadSettings());
+		this(List.of());
+	}
+
+	public PropertiesSettings(List<Path> extraFormatFiles) {
+		Map<DocumentFamily, Map<String, PropertyValue[]>> storeProperties = new EnumMap<>(DocumentFamily.class);
+		Map<String, DocumentFormat> formatsByExtension = new LinkedHashMap<>();
+
+		parseFormats(loadDefaultSettings(), storeProperties, formatsByExtension);
+		for(Path extraFormatFile : extraFormatFiles) {
+			parseFormats(loadSettings(extraFormatFile), storeProperties, formatsByExtension);
+			logger.info("Document formats from {} were merged.", extraFormatFile);
+		}
+
+		storeProperties.replaceAll((family, properties) -> Map.copyOf(properties));
+		this.storeProperties = Collections.unmodifiableMap(storeProperties);
+		this.formatsByExtension = Map.copyOf(formatsByExtension);
+		this.formats = formatsByExtension.values().stream().distinct().toList();
+
+		Map<String, DocumentFormat> formatsByMediaType = new HashMap<>();
+		for(DocumentFormat format : formats)
+			if(format.getMediaType() != null)
+				formatsByMediaType.put(format.getMediaType().toLowerCase(Locale.ROOT), format);
+		this.formatsByMediaType = Map.copyOf(formatsByMediaType);
 	}
 
 	public PropertyValue[] getStorePropertiesByExtensions(String sourceFileExtension, String targetFileExtension) {
-		String sourceFileFamily = fileFamilyByExtension.get(sourceFileExtension);
-		return getStorePropertiesByFileFamily(sourceFileFamily, targetFileExtension);
+		DocumentFormat sourceFormat = sourceFileExtension != null ? formatsByExtension.get(normalize(sourceFileExtension)) : null;
+		return getStorePropertiesByFileFamily(sourceFormat != null ? sourceFormat.getInputFamily() : null, targetFileExtension);
 	}
 
 	public PropertyValue[] getStorePropertiesByFileFamily(String sourceFileFamily, String targetFileExtension) {
+		return getStorePropertiesByFileFamily(DocumentFamily.findByName(sourceFileFamily), targetFileExtension);
+	}
+
+	public PropertyValue[] getStorePropertiesByFileFamily(DocumentFamily sourceFileFamily, String targetFileExtension) {
 		assertSourceFileFamilyNotNull(sourceFileFamily);
 		assertTargetFileFormatAreSupported(targetFileExtension);
 
-		PropertyValue[] properties = storeProperties.get(new FamilyAndExtension(sourceFileFamily, targetFileExtension));
+		PropertyValue[] properties = storeProperties.getOrDefault(sourceFileFamily, Map.of()).get(normalize(targetFileExtension));
 		if(properties == null)
 			throw new RuntimeException("Unsupported conversion: " + sourceFileFamily + " --> " + targetFileExtension);
-		return properties;
+		return copyOf(properties);
+	}
+
+	public Optional<DocumentFormat> getFormatByExtension(String extension) {
+		return extension != null ? Optional.ofNullable(formatsByExtension.get(normalize(extension))) : Optional.empty();
+	}
+
+	public Optional<DocumentFormat> getFormatByMediaType(String mediaType) {
+		return mediaType != null ? Optional.ofNullable(formatsByMediaType.get(mediaType.toLowerCase(Locale.ROOT))) : Optional.empty();
 	}
 
+	public List<DocumentFormat> getFormats() {
+		return formats;
+	}
+
+	public boolean isSupportedConversion(DocumentFamily sourceFileFamily, String targetFileExtension) {
+		return sourceFileFamily != null && targetFileExtension != null &&
+				storeProperties.getOrDefault(sourceFileFamily, Map.of()).containsKey(normalize(targetFileExtension));
+	}
 
-	private JsonArray loadSettings() {
-		try(InputStream inputStream = getClass().getClassLoader().getResourceAsStream("documents-formats.json")) {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-			String data = reader.lines().collect(Collectors.joining("\n"));
-			return JsonParser.parseString(data).getAsJsonArray();
+
+	private JsonArray loadDefaultSettings() {
+		try(InputStream inputStream = PropertiesSettings.class.getClassLoader().getResourceAsStream(DefaultFormatsResource)) {
+			return readSettings(inputStream);
 		} catch(IOException e) {
 			throw new RuntimeException("Fail to load settings for file conversion with LibreOffice.", e);
 		}
 	}
 
-	private void parseStoreProperties(JsonArray settings) {
+	private JsonArray loadSettings(Path formatsFile) {
+		try(InputStream inputStream = Files.newInputStream(formatsFile)) {
+			return readSettings(inputStream);
+		} catch(IOException | RuntimeException e) {
+			throw new RuntimeException("Fail to load document formats from " + formatsFile, e);
+		}
+	}
+
+	private JsonArray readSettings(InputStream inputStream) {
+		Reader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+		return JsonParser.parseReader(reader).getAsJsonArray();
+	}
+
+	private void parseFormats(JsonArray settings,
+							  Map<DocumentFamily, Map<String, PropertyValue[]>> storeProperties,
+							  Map<String, DocumentFormat> formatsByExtension) {
 		for(int i = 0; i < settings.size(); i++) {
 			JsonObject fileFormatSettings = settings.get(i).getAsJsonObject();
-			String inputFamily = fileFormatSettings.get("inputFamily").getAsString();
-			JsonArray extensions = fileFormatSettings.get("extensions").getAsJsonArray();
 
-			for(int j = 0; j < extensions.size(); j++) {
-				String extension = extensions.get(j).getAsString();
-				supportedFileFormats.add(extension);
-				fileFamilyByExtension.put(extension, inputFamily);
-			}
+			List<String> extensions = new ArrayList<>();
+			for(JsonElement extension : fileFormatSettings.get("extensions").getAsJsonArray())
+				extensions.add(normalize(extension.getAsString()));
+
+			DocumentFormat format = new DocumentFormat(
+					fileFormatSettings.get("name").getAsString(),
+					extensions,
+					fileFormatSettings.has("mediaType") ? fileFormatSettings.get("mediaType").getAsString() : null,
+					parseFamily(fileFormatSettings.get("inputFamily").getAsString()),
+					parseLoadProfile(fileFormatSettings)
+			);
+			for(String extension : extensions)
+				formatsByExtension.put(extension, format);
 
-			Map<String, Object> fileFormatProperties = new HashMap<>();
 			JsonObject rowStoreProperties = fileFormatSettings.get("storeProperties").getAsJsonObject();
 			for(String fileFamilyName : rowStoreProperties.keySet()) {
+				Map<String, Object> fileFormatProperties = new HashMap<>();
 				JsonObject fileFamily = rowStoreProperties.get(fileFamilyName).getAsJsonObject();
 				for(String propertyName : fileFamily.keySet())
 					fileFormatProperties.put(propertyName, fileFamily.get(propertyName).getAsString());
 
-				extensions = fileFormatSettings.get("extensions").getAsJsonArray();
-				for(int j = 0; j < extensions.size(); j++) {
-					String extension = extensions.get(j).getAsString();
-					FamilyAndExtension familyAndExtension = new FamilyAndExtension(fileFamilyName, extension);
-					storeProperties.put(familyAndExtension, Properties.properties(fileFormatProperties));
-				}
+				Map<String, PropertyValue[]> familyProperties =
+						storeProperties.computeIfAbsent(parseFamily(fileFamilyName), family -> new HashMap<>());
+				for(String extension : extensions)
+					familyProperties.put(extension, Properties.properties(fileFormatProperties));
 			}
 		}
 	}
 
+	/*
+	* 'loadProfile' is the name of a base profile (standard by default), 'loadProperties' are added over it.
+	*/
+	private LoadProfile parseLoadProfile(JsonObject fileFormatSettings) {
+		LoadProfile loadProfile = LoadProfile.standard();
+		if(fileFormatSettings.has("loadProfile")) {
+			String profileName = fileFormatSettings.get("loadProfile").getAsString();
+			loadProfile = LoadProfile.findByName(profileName);
+			if(loadProfile == null)
+				throw new RuntimeException("Unknown load profile: " + profileName);
+		}
+
+		if(fileFormatSettings.has("loadProperties")) {
+			JsonObject loadProperties = fileFormatSettings.get("loadProperties").getAsJsonObject();
+			for(String propertyName : loadProperties.keySet())
+				loadProfile = loadProfile.withProperty(propertyName, parseValue(loadProperties.get(propertyName)));
+		}
+
+		return loadProfile;
+	}
+
+	private Object parseValue(JsonElement value) {
+		JsonPrimitive primitive = value.getAsJsonPrimitive();
+		if(primitive.isBoolean())
+			return primitive.getAsBoolean();
+		if(primitive.isNumber())
+			return primitive.getAsInt();
+		return primitive.getAsString();
+	}
+
+	private DocumentFamily parseFamily(String familyName) {
+		DocumentFamily family = DocumentFamily.findByName(familyName);
+		if(family == null)
+			throw new RuntimeException("Unknown document family: " + familyName);
+		return family;
+	}
+
 	private void assertTargetFileFormatAreSupported(String fileFormat) {
-		if(!supportedFileFormats.contains(fileFormat))
+		if(fileFormat == null || !formatsByExtension.containsKey(normalize(fileFormat)))
 			throw new RuntimeException("Unsupported file format: " + fileFormat);
 	}
 
-	private void assertSourceFileFamilyNotNull(String sourceFileFamily) {
+	private void assertSourceFileFamilyNotNull(DocumentFamily sourceFileFamily) {
 		if(sourceFileFamily == null)
 			throw new RuntimeException("LibreOffice can't determine file family for source file.");
 	}
+
+	private static String normalize(String extension) {
+		return extension.toLowerCase(Locale.ROOT);
+	}
+
+	private static PropertyValue[] copyOf(PropertyValue[] properties) {
+		PropertyValue[] result = new PropertyValue[properties.length];
+		for(int i = 0; i < properties.length; i++) {
+			Object value = properties[i].Value instanceof PropertyValue[] ?
+					copyOf((PropertyValue[]) properties[i].Value) :
+					properties[i].Value;
+			result[i] = Properties.property(properties[i].Name, value);
+		}
+		return result;
+	}
+
+	private static List<Path> extraFormatFilesFromSystemProperty() {
+		String extraFormats = System.getProperty(ExtraFormatsProperty);
+		if(extraFormats == null || extraFormats.isBlank())
+			return List.of();
+
+		List<Path> result = new ArrayList<>();
+		for(String path : extraFormats.split(File.pathSeparator))
+			if(!path.isBlank())
+				result.add(Paths.get(path.trim()));
+		return result;
+	}
 }
@@ -0,0 +1,116 @@
+package com.bakuard.lo;
+
+import java.time.Duration;
+
+/*
+* What a converter does when the LibreOffice process crashes during a conversion or fails to start:
+*
+* maxReplayAttempts - how many times a crashed conversion is replayed on the restarted process. A conversion
+*  is replayed only if its source can be read again and nothing has been written to the caller's stream yet.
+* poisonThreshold - after this number of crashes on the same source document the document is rejected with
+*  PoisonDocumentException without being loaded. Zero disables poison detection.
+* startFailureThreshold - after this number of failed starts in a row the converter fails fast with
+*  ProcessUnavailableException for circuitOpenDuration, then tries to start the process again. Zero disables it.
+* backgroundRestart - the crashed process is restarted by a background thread, not by the next call.
+*
+* Instances are immutable.
+*/
+public class RecoveryPolicy {
+
+	private static final RecoveryPolicy Defaults = new RecoveryPolicy(1, 2, 3, Duration.ofSeconds(30), true);
+	private static final RecoveryPolicy None = new RecoveryPolicy(0, 0, 0, Duration.ZERO, false);
+
+	public static RecoveryPolicy defaults() {
+		return Defaults;
+	}
+
+	public static RecoveryPolicy none() {
+		return None;
+	}
+
+
+	private final int maxReplayAttempts;
+	private final int poisonThreshold;
+	private final int startFailureThreshold;
+	private final Duration circuitOpenDuration;
+	private final boolean backgroundRestart;
+
+	private RecoveryPolicy(int maxReplayAttempts,
+						   int poisonThreshold,
+						   int startFailureThreshold,
+						   Duration circuitOpenDuration,
+						   boolean backgroundRestart) {
+		this.maxReplayAttempts = maxReplayAttempts;
+		this.poisonThreshold = poisonThreshold;
+		this.startFailureThreshold = startFailureThreshold;
+		this.circuitOpenDuration = circuitOpenDuration;
+		this.backgroundRestart = backgroundRestart;
+	}
+
+	public RecoveryPolicy withMaxReplayAttempts(int maxReplayAttempts) {
+		if(maxReplayAttempts < 0)
+			throw new IllegalArgumentException("Max replay attempts must not be negative, actual: " + maxReplayAttempts);
+		return new RecoveryPolicy(maxReplayAttempts, poisonThreshold, startFailureThreshold, circuitOpenDuration, backgroundRestart);
+	}
+
+	public RecoveryPolicy withPoisonThreshold(int poisonThreshold) {
+		if(poisonThreshold < 0)
+			throw new IllegalArgumentException("Poison threshold must not be negative, actual: " + poisonThreshold);
+		return new RecoveryPolicy(maxReplayAttempts, poisonThreshold, startFailureThreshold, circuitOpenDuration, backgroundRestart);
+	}
+
+	public RecoveryPolicy withCircuitBreaker(int startFailureThreshold, Duration circuitOpenDuration) {
+		if(startFailureThreshold < 0)
+			throw new IllegalArgumentException("Start failure threshold must not be negative, actual: " + startFailureThreshold);
+		if(circuitOpenDuration == null || circuitOpenDuration.isNegative())
+			throw new IllegalArgumentException("Circuit open duration must not be null or negative: " + circuitOpenDuration);
+		return new RecoveryPolicy(maxReplayAttempts, poisonThreshold, startFailureThreshold, circuitOpenDuration, backgroundRestart);
+	}
+
+	public RecoveryPolicy withBackgroundRestart(boolean backgroundRestart) {
+		return new RecoveryPolicy(maxReplayAttempts, poisonThreshold, startFailureThreshold, circuitOpenDuration, backgroundRestart);
+	}
+
+	public int getMaxReplayAttempts() {
+		return maxReplayAttempts;
+	}
+
+	public int getPoisonThreshold() {
+		return poisonThreshold;
+	}
+
+	public int getStartFailureThreshold() {
+		return startFailureThreshold;
+	}
+
+	public Duration getCircuitOpenDuration() {
+		return circuitOpenDuration;
+	}
+
+	public boolean isBackgroundRestart() {
+		return backgroundRestart;
+	}
+
+	public boolean isPoisonDetected() {
+		return poisonThreshold > 0;
+	}
+
+	public boolean isPoison(int crashes) {
+		return poisonThreshold > 0 && crashes >= poisonThreshold;
+	}
+
+	public boolean isCircuitOpened(int startFailures) {
+		return startFailureThreshold > 0 && startFailures >= startFailureThreshold;
+	}
+
+	@Override
+	public String toString() {
+		return "RecoveryPolicy{" +
+				"maxReplayAttempts=" + maxReplayAttempts +
+				", poisonThreshold=" + poisonThreshold +
+				", startFailureThreshold=" + startFailureThreshold +
+				", circuitOpenDuration=" + circuitOpenDuration +
+				", backgroundRestart=" + backgroundRestart +
+				'}';
+	}
+}
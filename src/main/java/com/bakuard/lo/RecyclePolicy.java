@@ -0,0 +1,106 @@
+package com.bakuard.lo;
+
+import java.time.Duration;
+
+/*
+* Conditions under which a LibreOffice process is restarted between conversions: after a number of conversions,
+* when its resident memory exceeds a threshold, or when it has been running for too long.
+* A zero or null value disables the corresponding condition. Instances are immutable.
+*
+* Reading the resident memory walks all processes of LibreOffice, so it is sampled at most once
+* per memoryCheckPeriod (10 seconds by default) instead of after every conversion.
+*/
+public class RecyclePolicy {
+
+	private static final Duration DefaultMemoryCheckPeriod = Duration.ofSeconds(10);
+	private static final RecyclePolicy None = new RecyclePolicy(0, 0L, DefaultMemoryCheckPeriod, null);
+
+	public static RecyclePolicy none() {
+		return None;
+	}
+
+
+	private final int maxConversions;
+	private final long maxResidentMemoryBytes;
+	private final Duration memoryCheckPeriod;
+	private final Duration maxAge;
+
+	private RecyclePolicy(int maxConversions, long maxResidentMemoryBytes, Duration memoryCheckPeriod, Duration maxAge) {
+		this.maxConversions = maxConversions;
+		this.maxResidentMemoryBytes = maxResidentMemoryBytes;
+		this.memoryCheckPeriod = memoryCheckPeriod;
+		this.maxAge = maxAge;
+	}
+
+	public RecyclePolicy withMaxConversions(int maxConversions) {
+		if(maxConversions < 0)
+			throw new IllegalArgumentException("Max conversions must not be negative, actual: " + maxConversions);
+		return new RecyclePolicy(maxConversions, maxResidentMemoryBytes, memoryCheckPeriod, maxAge);
+	}
+
+	/*
+	* Resident memory is read from /proc/<pid>/status, so this condition works only on Linux.
+	*/
+	public RecyclePolicy withMaxResidentMemoryBytes(long maxResidentMemoryBytes) {
+		if(maxResidentMemoryBytes < 0)
+			throw new IllegalArgumentException("Max resident memory must not be negative, actual: " + maxResidentMemoryBytes);
+		return new RecyclePolicy(maxConversions, maxResidentMemoryBytes, memoryCheckPeriod, maxAge);
+	}
+
+	/*
+	* Zero checks the memory after every conversion.
+	*/
+	public RecyclePolicy withMemoryCheckPeriod(Duration memoryCheckPeriod) {
+		if(memoryCheckPeriod == null || memoryCheckPeriod.isNegative())
+			throw new IllegalArgumentException("Memory check period must not be null or negative, actual: " + memoryCheckPeriod);
+		return new RecyclePolicy(maxConversions, maxResidentMemoryBytes, memoryCheckPeriod, maxAge);
+	}
+
+	public RecyclePolicy withMaxAge(Duration maxAge) {
+		if(maxAge != null && maxAge.isNegative())
+			throw new IllegalArgumentException("Max age must not be negative, actual: " + maxAge);
+		return new RecyclePolicy(maxConversions, maxResidentMemoryBytes, memoryCheckPeriod, maxAge);
+	}
+
+	public int getMaxConversions() {
+		return maxConversions;
+	}
+
+	public long getMaxResidentMemoryBytes() {
+		return maxResidentMemoryBytes;
+	}
+
+	public Duration getMemoryCheckPeriod() {
+		return memoryCheckPeriod;
+	}
+
+	public Duration getMaxAge() {
+		return maxAge;
+	}
+
+	public boolean isConversionsLimitReached(int conversions) {
+		return maxConversions > 0 && conversions >= maxConversions;
+	}
+
+	public boolean isMemoryLimitReached(long residentMemoryBytes) {
+		return maxResidentMemoryBytes > 0 && residentMemoryBytes >= maxResidentMemoryBytes;
+	}
+
+	public boolean isAgeLimitReached(Duration age) {
+		return maxAge != null && !maxAge.isZero() && age.compareTo(maxAge) >= 0;
+	}
+
+	public boolean isMemoryChecked() {
+		return maxResidentMemoryBytes > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "RecyclePolicy{" +
+				"maxConversions=" + maxConversions +
+				", maxResidentMemoryBytes=" + maxResidentMemoryBytes +
+				", memoryCheckPeriod=" + memoryCheckPeriod +
+				", maxAge=" + maxAge +
+				'}';
+	}
+}
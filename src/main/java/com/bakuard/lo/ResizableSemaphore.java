@@ -0,0 +1,30 @@
+package com.bakuard.lo;
+
+import java.util.concurrent.Semaphore;
+
+/*
+* Fair semaphore which number of permits can be changed while permits are held: after a decrease,
+* the new limit takes effect as the held permits are released.
+*/
+final class ResizableSemaphore extends Semaphore {
+
+	private int permits;
+
+	ResizableSemaphore(int permits) {
+		super(permits, true);
+		this.permits = permits;
+	}
+
+	synchronized void resize(int newPermits) {
+		int delta = newPermits - permits;
+		if(delta > 0)
+			release(delta);
+		else if(delta < 0)
+			reducePermits(-delta);
+		permits = newPermits;
+	}
+
+	synchronized int getPermits() {
+		return permits;
+	}
+}
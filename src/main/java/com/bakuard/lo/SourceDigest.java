@@ -0,0 +1,35 @@
+package com.bakuard.lo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+* SHA-256 hashing of source documents, shared by ConversionCache and PoisonRegistry.
+*/
+final class SourceDigest {
+
+	private SourceDigest() {}
+
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported.", e);
+		}
+	}
+
+	static void update(MessageDigest digest, Path sourceFile) throws IOException {
+		try(InputStream in = Files.newInputStream(sourceFile)) {
+			byte[] buffer = new byte[64 * 1024];
+			int length = in.read(buffer);
+			while(length != -1) {
+				digest.update(buffer, 0, length);
+				length = in.read(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.bakuard.lo;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+* Copying of source documents from the caller's InputStream before they are loaded by LibreOffice.
+* A document that is not larger than memoryThreshold stays in the heap, a larger one is spilled to a file
+* in spillDirectory (for example, /dev/shm to keep it in RAM). Documents in the heap of all conversions
+* that use the same spooler take at most memoryBudget bytes, the documents above the budget are spilled too.
+*
+* The spooler can be shared between several converters (by default, all converters share one).
+*/
+public class SourceSpooler {
+
+	private static final Logger logger = LoggerFactory.getLogger(SourceSpooler.class.getName());
+
+	private static final int ScratchBufferSize = 64 * 1024;
+	private static final int MaxPooledScratchBuffers = 32;
+	private static final int SpillBufferSize = 1024 * 1024;
+	private static final String SpillFilePrefix = "loConverter-source-";
+
+	private static final SourceSpooler Default = new SourceSpooler(
+			Paths.get(System.getProperty("java.io.tmpdir")),
+			4 * 1024 * 1024,
+			256L * 1024L * 1024L
+	);
+
+	public static SourceSpooler defaults() {
+		return Default;
+	}
+
+
+	private final Path spillDirectory;
+	private final int memoryThreshold;
+	private final long memoryBudget;
+
+	private final AtomicLong memoryBytes = new AtomicLong();
+	private final AtomicLong spilledDocuments = new AtomicLong();
+
+	/*
+	* Documents up to ScratchBufferSize (most of them) are read into a pooled buffer and then copied
+	* to an array of the exact size, so reading them doesn't allocate growing buffers.
+	*/
+	private final int scratchBufferSize;
+	private final ConcurrentLinkedQueue<byte[]> scratchBuffers = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledScratchBuffers = new AtomicInteger();
+
+	public SourceSpooler(Path spillDirectory, int memoryThreshold, long memoryBudget) {
+		if(memoryThreshold < 0)
+			throw new IllegalArgumentException("Memory threshold must not be negative, actual: " + memoryThreshold);
+		if(memoryThreshold == Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Memory threshold must be less than " + Integer.MAX_VALUE);
+		if(memoryBudget < 0)
+			throw new IllegalArgumentException("Memory budget must not be negative, actual: " + memoryBudget);
+
+		this.spillDirectory = spillDirectory.toAbsolutePath();
+		this.memoryThreshold = memoryThreshold;
+		this.memoryBudget = memoryBudget;
+		this.scratchBufferSize = Math.min(ScratchBufferSize, memoryThreshold + 1);
+	}
+
+	public Path getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	public int getMemoryThreshold() {
+		return memoryThreshold;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/*
+	* Total size of the documents that are held in the heap at the moment.
+	*/
+	public long getMemoryBytes() {
+		return memoryBytes.get();
+	}
+
+	public long getSpilledDocumentsNumber() {
+		return spilledDocuments.get();
+	}
+
+	/*
+	* Reads the stream to the end and closes it. The result must be closed after the conversion.
+	*/
+	SpooledSource spool(InputStream in) {
+		byte[] scratchBuffer = borrowScratchBuffer();
+		try {
+			byte[] buffer = scratchBuffer;
+			long reserved = 0L;
+			int length = IOUtils.read(in, buffer);
+			while(length == buffer.length && buffer.length <= memoryThreshold) {
+				int capacity = (int) Math.min(buffer.length * 2L, memoryThreshold + 1L);
+				if(!reserve(capacity - reserved))
+					break;
+				reserved = capacity;
+				buffer = Arrays.copyOf(buffer, capacity);
+				length += IOUtils.read(in, buffer, length, capacity - length);
+			}
+
+			if(length < buffer.length && reserve(length - reserved))
+				return new SpooledSource(this, Arrays.copyOf(buffer, length));
+
+			release(reserved);
+			return new SpooledSource(this, spill(buffer, length, in));
+		} catch(IOException e) {
+			throw new RuntimeException("Fail to read InputStream while convert document with LibreOffice.", e);
+		} finally {
+			returnScratchBuffer(scratchBuffer);
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/*
+	* A copy of a document from the heap for the cases when LibreOffice can't load it from a stream.
+	*/
+	Path toTempFile(byte[] document) {
+		try {
+			Path tempFile = Files.createTempFile(spillDirectory, SpillFilePrefix, null);
+			Files.write(tempFile, document);
+			return tempFile;
+		} catch(IOException e) {
+			throw new RuntimeException("Fail copy InputStream to temp file while convert document with LibreOffice.", e);
+		}
+	}
+
+	void release(long bytes) {
+		if(bytes > 0)
+			memoryBytes.addAndGet(-bytes);
+	}
+
+	@Override
+	public String toString() {
+		return "SourceSpooler{" +
+				"spillDirectory=" + spillDirectory +
+				", memoryThreshold=" + memoryThreshold +
+				", memoryBudget=" + memoryBudget +
+				", memoryBytes=" + memoryBytes +
+				'}';
+	}
+
+
+	/*
+	* The rest of a file stream is transferred by its channel, other streams are copied with a large buffer.
+	*/
+	private Path spill(byte[] head, int headLength, InputStream in) throws IOException {
+		Path file = Files.createTempFile(spillDirectory, SpillFilePrefix, null);
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(head, 0, headLength));
+			if(in instanceof FileInputStream fileInputStream) {
+				FileChannel source = fileInputStream.getChannel();
+				long position = headLength;
+				long transferred = channel.transferFrom(source, position, Long.MAX_VALUE - position);
+				while(transferred > 0) {
+					position += transferred;
+					transferred = channel.transferFrom(source, position, Long.MAX_VALUE - position);
+				}
+			} else {
+				OutputStream out = Channels.newOutputStream(channel);
+				IOUtils.copyLarge(in, out, new byte[SpillBufferSize]);
+				out.flush();
+			}
+		} catch(IOException | RuntimeException e) {
+			deleteQuietly(file);
+			throw e;
+		}
+
+		spilledDocuments.incrementAndGet();
+		logger.debug("Source document was spilled to {}", file);
+		return file;
+	}
+
+	private boolean reserve(long bytes) {
+		if(bytes <= 0) {
+			release(-bytes);
+			return true;
+		}
+
+		long current = memoryBytes.get();
+		while(current + bytes <= memoryBudget) {
+			if(memoryBytes.compareAndSet(current, current + bytes))
+				return true;
+			current = memoryBytes.get();
+		}
+		return false;
+	}
+
+	private byte[] borrowScratchBuffer() {
+		byte[] buffer = scratchBuffers.poll();
+		if(buffer == null)
+			return new byte[scratchBufferSize];
+		pooledScratchBuffers.decrementAndGet();
+		return buffer;
+	}
+
+	private void returnScratchBuffer(byte[] buffer) {
+		if(pooledScratchBuffers.incrementAndGet() <= MaxPooledScratchBuffers)
+			scratchBuffers.offer(buffer);
+		else
+			pooledScratchBuffers.decrementAndGet();
+	}
+
+	static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch(IOException e) {
+			logger.warn("Fail to delete temporary file with document source {}", file, e);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package com.bakuard.lo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+* Source document read from the caller's InputStream by SourceSpooler: either an array in the heap
+* or a file in the spill directory. Closing returns the memory to the budget of the spooler or deletes the file.
+*/
+final class SpooledSource implements AutoCloseable {
+
+	private final SourceSpooler spooler;
+	private final byte[] bytes;
+	private final Path file;
+	private final long length;
+	private boolean closed;
+
+	SpooledSource(SourceSpooler spooler, byte[] bytes) {
+		this.spooler = spooler;
+		this.bytes = bytes;
+		this.file = null;
+		this.length = bytes.length;
+	}
+
+	SpooledSource(SourceSpooler spooler, Path file) throws IOException {
+		this.spooler = spooler;
+		this.bytes = null;
+		this.file = file;
+		this.length = Files.size(file);
+	}
+
+	boolean isInMemory() {
+		return bytes != null;
+	}
+
+	/*
+	* Null if the document was spilled to a file.
+	*/
+	byte[] getBytes() {
+		return bytes;
+	}
+
+	/*
+	* Null if the document is in the heap.
+	*/
+	Path getFile() {
+		return file;
+	}
+
+	long getLength() {
+		return length;
+	}
+
+	/*
+	* A temporary copy of a document from the heap. The caller deletes it.
+	*/
+	Path toTempFile() {
+		return spooler.toTempFile(bytes);
+	}
+
+	@Override
+	public synchronized void close() {
+		if(closed)
+			return;
+
+		closed = true;
+		if(bytes != null)
+			spooler.release(length);
+		else
+			SourceSpooler.deleteQuietly(file);
+	}
+}